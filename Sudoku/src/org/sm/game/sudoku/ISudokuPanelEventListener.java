@@ -3,4 +3,9 @@ package org.sm.game.sudoku;
 public interface ISudokuPanelEventListener
 {
     void onFilledChanged(int filled);
+
+    /**
+     * Called when the last guess makes every cell correct.
+     */
+    void onSolved();
 }
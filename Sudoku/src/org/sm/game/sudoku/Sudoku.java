@@ -1,12 +1,10 @@
 package org.sm.game.sudoku;
 
-import java.util.Random;
-import java.util.ArrayList;
-import java.util.jar.JarEntry;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.io.*;
-import java.net.URL;
-import java.net.URLConnection;
-import java.net.JarURLConnection;
 
 /**
  * Basic Algorithm is borrowed from www.sudokuessentials.com/create-sudoku.html
@@ -17,37 +15,119 @@ import java.net.JarURLConnection;
  */
 public class Sudoku
 {
-    public static int MAX_SOLVE_MILLI = 2000;       // 2 seconds
+    public static long MAX_SOLVE_NODES = 80000000L;   // about 2 seconds of backtracking
+    public static long MAX_PROPAGATION_NODES = 2000L;   // for the default solver of large boards
+
+    public static final int EXTREME_WIDTH = 9;          // width of the extreme bank
+    public static final int MAX_WIDTH = 25;             // candidates are bits of an int
 
     private static final int seedNum = 10;
-    private static int extremeCount = 0;
-    private static final int extremeDataSize = 26;  // 17 * 1.5 = 25.5
+    private static final int maxRetry = 20;         // rejected removals in a row before digging stops
+    static final int maxRatingTries = 50;           // puzzles dug before one outside the rating band is kept
+    static final int extremeDataSize = 26;  // 17 * 1.5 = 25.5
 
     private int _width;
     private SudokuLevel _level;
     private int _actualInitial;
-    private byte[][] _problem;
-    private byte[][] _intermediate;
-    private byte[][] _answer;
+    private int _rating;
+    private int _tries;
+    private SudokuBoard _problem;
+    private SudokuBoard _answer;
+    private SudokuBoard _grid;
+    private SudokuCandidates _candidates;
+    private SudokuSolver _solver;
+    private SplittableRandom _random;
+    private SudokuTransform _transform;
+    private SudokuRater _rater;
+    private SudokuPuzzleBank _bank;
+    private SudokuBank _extreme;
+    private long _seed;
+
+    private ForkJoinPool _digPool;
+    private int _digBatch;
+    private ThreadLocal<SudokuSolver> _digSolver;
+    private SudokuBoard[] _digBoards;
+    private int[] _digCells;
+    private boolean[] _digAccepted;
 
     public Sudoku(int width, String levelName)
             throws Exception
     {
         SudokuLevel level = SudokuLevel.getLevel(levelName);
         if (level != null)
-            init(width, level);
+        {
+            init(width, createSolver(width));
+            generate(level);
+        }
         else
             throw new Exception("Invalid Sudoku Level - " + levelName);
     }
 
     public Sudoku(int width, SudokuLevel level)
     {
-        init(width, level);
+        this(width, level, createSolver(width));
+    }
+
+    public Sudoku(int width, SudokuLevel level, SudokuSolver solver)
+    {
+        init(width, solver);
+        generate(level);
+    }
+
+    /**
+     * Creates a generator without a puzzle. Call generate for each puzzle;
+     * the boards of the instance are reused, so a steady stream of puzzles
+     * does not allocate.
+     */
+    public Sudoku(int width, SudokuSolver solver)
+    {
+        init(width, solver);
     }
 
     public Sudoku(int width)
     {
-        _width = width;
+        init(width, createSolver(width));
+    }
+
+    /**
+     * Returns the default solver: cell-order backtracking for 9x9 and
+     * propagation with MRV branching for the larger boards.
+     */
+    public static SudokuSolver createSolver(int width)
+    {
+        SudokuSolver solver;
+
+        if (width <= EXTREME_WIDTH)
+            solver = new SudokuBacktrackSolver(width);
+        else
+        {
+            solver = new SudokuPropagationSolver(width);
+            solver.setNodeLimit(MAX_PROPAGATION_NODES);
+        }
+
+        return solver;
+    }
+
+    /**
+     * Returns a solver of the given name: backtrack, dlx, propagation, or
+     * parallel, which splits each search over the common ForkJoinPool.
+     */
+    public static SudokuSolver createSolver(String name, int width)
+    {
+        SudokuSolver solver;
+
+        if ("backtrack".equals(name))
+            solver = new SudokuBacktrackSolver(width);
+        else if ("dlx".equals(name))
+            solver = new SudokuDLXSolver(width);
+        else if ("propagation".equals(name))
+            solver = new SudokuPropagationSolver(width);
+        else if ("parallel".equals(name))
+            solver = new SudokuParallelSolver(width);
+        else
+            throw new RuntimeException("Invalid Sudoku Solver - " + name);
+
+        return solver;
     }
 
     public SudokuLevel getLevel()
@@ -55,6 +135,24 @@ public class Sudoku
         return _level;
     }
 
+    /**
+     * Returns the SudokuRater rating of the puzzle, 0 if it came unrated
+     * from a bank.
+     */
+    public int getRating()
+    {
+        return _rating;
+    }
+
+    /**
+     * Returns the puzzles the last generate dug to find one in the rating
+     * band, 0 if it was picked from a bank or the extreme bank.
+     */
+    public int getTries()
+    {
+        return _tries;
+    }
+
     public int getActualInitial()
     {
         return _actualInitial;
@@ -62,41 +160,255 @@ public class Sudoku
 
     public byte[][] getProblem()
     {
-        return _problem;
+        return _problem.toArray();
     }
 
     public byte[][] getAnswer()
+    {
+        return _answer.toArray();
+    }
+
+    /**
+     * Returns the problem board itself. It is overwritten by the next generate.
+     */
+    public SudokuBoard getProblemBoard()
+    {
+        return _problem;
+    }
+
+    /**
+     * Returns the answer board itself. It is overwritten by the next generate.
+     */
+    public SudokuBoard getAnswerBoard()
     {
         return _answer;
     }
 
-    private void init(int width, SudokuLevel level)
+    /**
+     * Counts the solutions of grid up to limit with the solver of this Sudoku.
+     * Returns SudokuSolver.UNKNOWN if the solver gave up before proving the count.
+     */
+    public int countSolutions(byte[][] grid, int limit)
+    {
+        _grid.copyFrom(grid);
+
+        return countSolutions(_grid, limit);
+    }
+
+    public int countSolutions(SudokuBoard board, int limit)
+    {
+        return _solver.countSolutions(board, limit);
+    }
+
+    /**
+     * Solves problem into answer with the solver of this Sudoku. Returns
+     * false if it has no solution or the solver gave up.
+     */
+    public boolean solve(SudokuBoard problem, SudokuBoard answer)
+    {
+        return _solver.solve(problem, answer);
+    }
+
+    private void init(int width, SudokuSolver solver)
     {
+        int groupWidth = (int)Math.sqrt(width);
+        if (groupWidth * groupWidth != width || width > MAX_WIDTH)
+            throw new RuntimeException("Invalid Sudoku Width - " + width);
+
         _width = width;
+        _solver = solver;
+        _problem = new SudokuBoard(width);
+        _answer = new SudokuBoard(width);
+        _grid = new SudokuBoard(width);
+        _candidates = new SudokuCandidates(width);
+        _random = new SplittableRandom();
+        _transform = new SudokuTransform(width);
+        _rater = new SudokuRater(width);
+
+        SudokuPuzzleBank bank = SudokuPuzzleBank.getDefault();
+        _bank = bank != null && bank.getWidth() == width ? bank : null;
+    }
+
+    /**
+     * Makes generate pick the puzzles of the levels bank has from it, or
+     * create every puzzle if bank is null. The bank shipped with the game
+     * is used by default.
+     */
+    public void setBank(SudokuPuzzleBank bank)
+    {
+        if (bank != null && bank.getWidth() != _width)
+            throw new RuntimeException("Invalid Sudoku Width - " + bank.getWidth());
+
+        _bank = bank;
+    }
+
+    /**
+     * Makes generate load 9x9 Extreme puzzles from bank, records of
+     * extremeDataSize bytes, instead of the extreme bank shipped with the
+     * game, which is used when bank is null.
+     */
+    public void setExtremeBank(SudokuBank bank)
+    {
+        if (bank != null && bank.getRecordSize() != extremeDataSize)
+            throw new RuntimeException("Invalid Sudoku Extreme Bank - record size " + bank.getRecordSize());
+
+        _extreme = bank;
+    }
+
+    /**
+     * Makes generate check batch candidate removals at a time on pool, with
+     * a solver of the given name per worker thread, or the default solver
+     * if solverName is null. A null pool digs sequentially with the solver
+     * of this Sudoku.
+     */
+    public void setDigPool(ForkJoinPool pool, int batch, final String solverName)
+    {
+        _digPool = pool;
+        _digBatch = batch;
+
+        if (pool != null)
+        {
+            _digBoards = new SudokuBoard[batch];
+            for (int i = 0; i < batch; i++)
+                _digBoards[i] = new SudokuBoard(_width);
+            _digCells = new int[batch];
+            _digAccepted = new boolean[batch];
+
+            _digSolver = new ThreadLocal<SudokuSolver>()
+            {
+                protected SudokuSolver initialValue()
+                {
+                    return solverName == null ? createSolver(_width) : createSolver(solverName, _width);
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns a generator of the same width with the given solver and a
+     * random stream split off this one, for another worker thread. Splits
+     * of a seeded generator give the same puzzles on every run.
+     */
+    public Sudoku split(SudokuSolver solver)
+    {
+        Sudoku sudoku = new Sudoku(_width, solver);
+        sudoku._random = _random.split();
+
+        return sudoku;
+    }
+
+    /**
+     * Returns the seed of the last generate(level, seed).
+     */
+    public long getSeed()
+    {
+        return _seed;
+    }
+
+    /**
+     * Returns the seed of the puzzle of level for date, the same on every
+     * machine, so a daily puzzle can be minted on demand instead of stored.
+     */
+    public static long getDailySeed(LocalDate date, SudokuLevel level)
+    {
+        return mix(date.toEpochDay() * 0x9E3779B97F4A7C15L + level.getName().toLowerCase().hashCode());
+    }
+
+    static long mix(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * Creates the puzzle of level for seed. The same seed, level, width and
+     * kind of solver always give the same puzzle.
+     */
+    public void generate(SudokuLevel level, long seed)
+    {
+        _seed = seed;
+        _random = new SplittableRandom(seed);
+
+        generate(level);
+    }
+
+    /**
+     * Makes a new puzzle from base, a puzzle with a unique solution, by a
+     * random symmetry transform. No solver runs; the new puzzle keeps the
+     * level, the given count and the rating of base, which SudokuRater
+     * gives every transform of a puzzle.
+     */
+    public void mint(SudokuPuzzle base)
+    {
+        if (base.getWidth() != _width)
+            throw new RuntimeException("Invalid Sudoku Width - " + base.getWidth());
+
+        _transform.randomize(_random);
+        _transform.apply(base.getProblemBoard(), _problem);
+        _transform.apply(base.getAnswerBoard(), _answer);
+
+        _level = base.getLevel();
+        _actualInitial = base.getActualInitial();
+        _rating = base.getRating();
+        _tries = 0;
+    }
+
+    /**
+     * Creates a new puzzle of the level into the problem and answer boards.
+     * A dug or extreme bank puzzle is rated and replaced until its rating
+     * is in the band of the level, up to maxRatingTries times.
+     */
+    public void generate(SudokuLevel level)
+    {
         _level = level;
-        _problem = new byte[width][width];
-        _intermediate = new byte[width][width];
-        _answer = new byte[width][width];
+        _tries = 0;
 
         boolean done;
         do
         {
-            if (SudokuLevel.EXTREME_LEVEL.equals(_level))
-                done = initExtreme();
+            if (_bank != null && _bank.getCount(_level) > 0)
+            {
+                int index = _bank.pick(_level, _random);
+                _actualInitial = _bank.read(index, _problem, _answer);
+                _rating = _bank.getRating(index);
+                done = true;
+            }
+            else if (SudokuLevel.EXTREME_LEVEL.equals(_level) && _width == EXTREME_WIDTH)
+            {
+                // best effort, see SudokuLevel: after maxRatingTries picks the
+                // last one is kept whatever it rates
+                done = loadExtreme(_problem);
+                if (done)
+                {
+                    // rated before it is solved, solving is the slow part of a bank puzzle
+                    _tries++;
+                    _rating = _rater.rate(_problem);
+                    done = (level.matchesRating(_width, _rating) || _tries >= maxRatingTries)
+                           && _solver.solve(_problem, _answer);
+                }
+            }
             else
-                done = initProblem(level.getInitialGiven());
+            {
+                done = initProblem(level.getInitialGiven(_width));
+                if (done)
+                {
+                    // the bands are for 9x9, a puzzle of another width matches any band
+                    _tries++;
+                    _rating = _rater.rate(_problem);
+                    done = level.matchesRating(_width, _rating) || _tries >= maxRatingTries;
+                }
+            }
         } while (!done);
-
-        _intermediate = null;
     }
 
     private boolean initProblem(int initial)
     {
-        Random randPos = new Random();
         int count = 0;
 
-        resetArray(_problem);
-        resetArray(_intermediate);
+        _problem.reset();
+        _candidates.reset();
 
         if (setNextValue(0, 0))
             count++;
@@ -104,69 +416,33 @@ public class Sudoku
         int total = _width * _width;
         while (count < seedNum)
         {
-            int pos = Math.abs(randPos.nextInt()) % total;
+            int pos = _random.nextInt(total);
             int x = pos % _width;
             int y = pos / _width;
 
-            if (_problem[y][x] == 0 && setNextValue(y, x))
+            if (_problem.get(y, x) == 0 && setNextValue(y, x))
                 count++;
         }
 
         boolean result = false;
 
-        if (solve(false))
+        if (_solver.solve(_problem, _answer))
         {
-            for (int y = 0; y < _width; y++)
-            {
-                System.arraycopy(_intermediate[y], 0, _answer[y], 0, _width);
-                System.arraycopy(_intermediate[y], 0, _problem[y], 0, _width);
-            }
+            _answer.copyInto(_problem);
 
-            //printArray(_answer);
+            //printBoard(_answer);
 
             int known = total;
             if (initial % 2 == 0)
             {
-                _problem[_width/2][_width/2] = 0;
+                _problem.set(_width/2, _width/2, 0);
                 known--;
             }
 
-            boolean removable;
-            int retry = 0;
-            do
-            {
-                int pos = Math.abs(randPos.nextInt()) % total;
-                int y = pos / _width;
-                int x = pos % _width;
-
-                if (_problem[y][x] != 0)
-                {
-                    _problem[y][x] = 0;
-                    _problem[_width-y-1][_width-x-1] = 0;
-
-                    removable = validateProblem();
-                    if (removable)
-                    {
-                        if (x == (_width-x-1) && y == (_width-y-1))
-                            known--;
-                        else
-                            known -= 2;
-                        retry = 0;
-                    }
-                    else
-                    {
-                        _problem[y][x] = _answer[y][x];
-                        _problem[_width-y-1][_width-x-1] = _answer[_width-y-1][_width-x-1];
-
-                        if (++retry < 20)
-                            removable = true;
-                    }
-                }
-                else
-                    removable = true;
-
-                Thread.yield();
-            } while (known > initial && removable);
+            if (_digPool != null)
+                known = digParallel(known, initial);
+            else
+                known = digSequential(known, initial);
 
             result = true;
             _actualInitial = known;
@@ -175,356 +451,233 @@ public class Sudoku
         return result;
     }
 
-    private boolean initExtreme()
+    /**
+     * Removes random point-symmetric pairs one at a time while the problem
+     * keeps a unique solution. Returns the number of givens left.
+     */
+    private int digSequential(int known, int initial)
     {
-        boolean result = false;
-        byte[][] data = new byte[_width][_width];
-
-        if (loadExtreme(data))
+        int total = _width * _width;
+        boolean removable;
+        int retry = 0;
+        do
         {
-            for (int y = 0; y < _width; y++)
-                System.arraycopy(data[y], 0, _problem[y], 0, _width);
+            int pos = _random.nextInt(total);
+            int y = pos / _width;
+            int x = pos % _width;
 
-            if (solve(false))
+            if (_problem.get(y, x) != 0)
             {
-                for (int y = 0; y < _width; y++)
-                    System.arraycopy(_intermediate[y], 0, _answer[y], 0, _width);
+                _problem.set(y, x, 0);
+                _problem.set(_width-y-1, _width-x-1, 0);
 
-                result = true;
+                removable = validateProblem();
+                if (removable)
+                {
+                    if (x == (_width-x-1) && y == (_width-y-1))
+                        known--;
+                    else
+                        known -= 2;
+                    retry = 0;
+                }
+                else
+                {
+                    _problem.set(y, x, _answer.get(y, x));
+                    _problem.set(_width-y-1, _width-x-1, _answer.get(_width-y-1, _width-x-1));
+
+                    if (++retry < maxRetry)
+                        removable = true;
+                }
             }
-        }
+            else
+                removable = true;
 
-        return result;
+            Thread.yield();
+        } while (known > initial && removable);
+
+        return known;
     }
 
-    private boolean loadExtreme(byte[][] data)
+    /**
+     * Checks a batch of random point-symmetric pairs at once on the dig pool,
+     * each against its own copy of the problem. The accepted pairs are then
+     * removed one after the other; all but the first are checked again,
+     * since two removals that are fine on their own can break uniqueness
+     * together. Stops, like digSequential, after maxRetry rejected pairs
+     * in a row. Returns the number of givens left.
+     */
+    private int digParallel(int known, int initial)
     {
-        boolean result = true;
-        URL urlData = getClass().getResource("data/sudoku17.dat");
-        InputStream is = null;
+        int total = _width * _width;
+        int retry = 0;
 
-        try
+        while (known > initial && retry < maxRetry)
         {
-            if (urlData != null)
+            int batch = 0;
+            for (int tried = 0; batch < _digBatch && tried < total; tried++)
             {
-                if (extremeCount == 0)
-                    extremeCount = getExtremeDataCount(urlData);
-
-                Random randPos = new Random();
-                int pos = Math.abs(randPos.nextInt()) % extremeCount;
+                int pos = _random.nextInt(total);
+                if (_problem.get(pos) != 0 && !isDigCandidate(pos, batch))
+                {
+                    _digCells[batch] = pos;
+                    _problem.copyInto(_digBoards[batch]);
+                    _digBoards[batch].set(pos, 0);
+                    _digBoards[batch].set(total - 1 - pos, 0);
+                    batch++;
+                }
+            }
 
-                is = urlData.openStream();
-                is.skip(pos * extremeDataSize);
+            if (batch == 0)
+                break;
 
-                byte[] buf = new byte[extremeDataSize];
-                is.read(buf);
+            _digPool.invoke(new DigCheck(0, batch));
 
-                byte[] buf2 = new byte[extremeDataSize * 2];
-                for (int i = 0, i2 = 0; i < buf.length; i++, i2 += 2)
+            boolean first = true;
+            for (int i = 0; i < batch && known > initial; i++)
+            {
+                if (!_digAccepted[i])
                 {
-                    buf2[i2] = (byte)((buf[i] >> 4) & 0x0F);
-                    buf2[i2+1] = (byte)(buf[i] & 0x0F);
+                    retry++;
+                    continue;
                 }
 
-                _actualInitial = 0;
-                int i2 = 0;
-                for (int y = 0; y < _width; y++)
-                {
-                    for (int x = 0; x < _width; x++)
-                    {
-                        if (buf2[i2] == y && buf2[i2+1] == x)
-                        {
-                            data[y][x] = buf2[i2+2];
-                            i2 += 3;
-                            _actualInitial++;
-                        }
-                        else
-                            data[y][x] = 0;
-                    }
-                }
-            }
-            else
-                result = false;
-        }
-        catch (Exception e)
-        {
-            result = false;
-        }
-        finally
-        {
-            if (is != null)
-            {
-                try
+                int pos = _digCells[i];
+                _problem.set(pos, 0);
+                _problem.set(total - 1 - pos, 0);
+
+                if (first || validateProblem())
                 {
-                    is.close();
+                    known -= pos == total - 1 - pos ? 1 : 2;
+                    retry = 0;
+                    first = false;
                 }
-                catch (Exception e)
+                else
                 {
-                    e.printStackTrace();
+                    _problem.set(pos, _answer.get(pos));
+                    _problem.set(total - 1 - pos, _answer.get(total - 1 - pos));
+                    retry++;
                 }
             }
         }
 
-        return result;
+        return known;
     }
 
-    private int getExtremeDataCount(URL urlData)
-            throws IOException
+    private boolean isDigCandidate(int pos, int batch)
     {
-        int dataCount;
-        URLConnection urlCon = urlData.openConnection();
+        int mirror = _width * _width - 1 - pos;
 
-        if (urlCon instanceof JarURLConnection)
-        {
-            JarEntry je = ((JarURLConnection)urlCon).getJarEntry();
-            dataCount = (int)(je.getSize() / extremeDataSize);
-        }
-        else
+        for (int i = 0; i < batch; i++)
         {
-            File fileData = new File(urlData.getPath());
-            dataCount = (int)(fileData.length() / extremeDataSize);
+            if (_digCells[i] == pos || _digCells[i] == mirror)
+                return true;
         }
 
-        return dataCount;
+        return false;
     }
 
-    private boolean validateProblem()
+    /**
+     * Checks the dig candidates from to to, splitting the range in halves.
+     */
+    private class DigCheck extends RecursiveAction
     {
-        for (int y = 0; y < _width; y++)
-            System.arraycopy(_problem[y], 0, _intermediate[y], 0, _width);
+        private static final long serialVersionUID = -3016741871437405254L;
 
-        return solve(false) && !solve(true);
-    }
+        private int from;
+        private int to;
 
-    private void resetArray(byte[][] array)
-    {
-        for (int y = 0; y < _width; y++)
+        private DigCheck(int from, int to)
         {
-            for (int x = 0; x < _width; x++)
-                array[y][x] = 0;
+            this.from = from;
+            this.to = to;
         }
-    }
 
-    private boolean setNextValue(int y, int x)
-    {
-        byte value;
-        int groupWidth = (int)Math.sqrt(_width);
-        Random randValue = new Random();
-        boolean found;
-        ArrayList<Byte> values = new ArrayList<Byte>();
-
-        do
+        protected void compute()
         {
-            value = (byte)(Math.abs(randValue.nextInt()) % _width + 1);
-            found = values.contains(value) ;
-
-            int ys = (y / groupWidth) * groupWidth;
-            int xs = (x / groupWidth) * groupWidth;
-            for (int yi = 0; yi < groupWidth && !found; yi++)
+            if (to - from > 1)
             {
-                int yy = ys + yi;
-                for (int xi = 0; xi < groupWidth && !found; xi++)
-                {
-                    int xx = xs + xi;
-                    if (_problem[yy][xx] == value)
-                        found = true;
-                }
-            }
-
-            for (int yi = 0; yi < _width && !found; yi++)
-            {
-                if (_problem[yi][x] == value)
-                    found = true;
-            }
-
-            for (int xi = 0; xi < _width && !found; xi++)
-            {
-                if (_problem[y][xi] == value)
-                    found = true;
-            }
-
-            if (!found)
-            {
-                _problem[y][x] = value;
-                _intermediate[y][x] = value;
+                int middle = (from + to) >>> 1;
+                invokeAll(new DigCheck(from, middle), new DigCheck(middle, to));
             }
             else
-                values.add(value);
-        } while (found && values.size() < _width);
-
-        return !found;
+                _digAccepted[from] = _digSolver.get().countSolutions(_digBoards[from], 2) == 1;
+        }
     }
 
-    private boolean solve(boolean cont)
+    private boolean loadExtreme(SudokuBoard data)
     {
-        boolean solvable = true;
-        int y, x;
-        long startMilli = System.currentTimeMillis();
+        SudokuBank bank = _extreme != null ? _extreme : SudokuBank.getExtreme();
+        boolean result = bank != null && bank.getCount() > 0;
 
-        if (cont)
+        if (result)
         {
-            y = _width - 1;
-            x = _width - 1;
+            byte[] buf = new byte[extremeDataSize];
 
-            do
-            {
-                while (x >= 0 && _problem[y][x] != 0)
-                    x--;
-
-                if (x < 0 && y > 0)
-                {
-                    y--;
-                    x = _width - 1;
-                }
-            } while (x >= 0 && y >= 0 && _problem[y][x] != 0);
-        }
-        else
-        {
-            y = 0;
-            x = 0;
-
-            _intermediate = new byte[_width][_width];
-            for (int yi = 0; yi < _width; yi++)
-                System.arraycopy(_problem[yi], 0, _intermediate[yi], 0, _width);
+            bank.read(_random.nextInt(bank.getCount()), buf, 0);
+            _actualInitial = SudokuCodec.decodeGivens(buf, 0, extremeDataSize, data);
         }
 
-        while (solvable)
-        {
-            if (x < 0 || y < 0 || System.currentTimeMillis() - startMilli > MAX_SOLVE_MILLI)
-                solvable = false;
-            else if (_problem[y][x] != 0 || findValue(y, x))
-            {
-                if (++x >= _width)
-                {
-                    if (++y >= _width)
-                        break;
-                    x = 0;
-                }
-            }
-            else
-            {
-                _intermediate[y][x--] = 0;
-
-                do
-                {
-                    while (x >= 0 && _problem[y][x] != 0)
-                        x--;
-
-                    if (x < 0 && y > 0)
-                    {
-                        if (y == 1)
-                            y = 0;
-                        else
-                    	    y--;
-                        x = _width - 1;
-                    }
-                } while (x >= 0 && y >= 0 && _problem[y][x] != 0);
-            }
-        }
+        return result;
+    }
 
-        return solvable;
+    private boolean validateProblem()
+    {
+        return countSolutions(_problem, 2) == 1;
     }
 
-    private boolean findValue(int y, int x)
+    private boolean setNextValue(int y, int x)
     {
+        byte value;
         boolean found;
-        int groupWidth = (int)Math.sqrt(_width);
-        byte value = _intermediate[y][x];
+        int tried = 0;
+        int free = _candidates.getCandidates(y, x);
 
         do
         {
-            found = ++value > _width;
-
-            for (int xi = 0; xi < _width && !found; xi++)
-            {
-                if (_intermediate[y][xi] == value)
-                    found = true;
-            }
+            value = (byte)(_random.nextInt(_width) + 1);
+            found = (free & (1 << (value - 1))) == 0;
 
             if (!found)
             {
-                int ys = (y / groupWidth) * groupWidth;
-                int xs = (x / groupWidth) * groupWidth;
-                for (int yi = 0; yi < groupWidth && !found; yi++)
-                {
-                    int yy = ys + yi;
-                    for (int xi = 0; xi < groupWidth && !found; xi++)
-                    {
-                        int xx = xs + xi;
-                        if (_intermediate[yy][xx] == value)
-                            found = true;
-                    }
-                }
-
-                for (int yi = 0; yi < _width && !found; yi++)
-                {
-                    if (_intermediate[yi][x] == value)
-                        found = true;
-                }
+                _problem.set(y, x, value);
+                _candidates.place(y, x, value);
             }
-
-            if (!found)
-                _intermediate[y][x] = value;
-        } while (found && value <= _width);
+            else
+                tried++;
+        } while (found && tried < _width);
 
         return !found;
     }
 
-    private void printArray(byte[][] values)
+    private void printBoard(SudokuBoard board)
     {
         StringBuffer sb = new StringBuffer();
 
         for (int y = 0; y < _width; y++)
         {
             for (int x = 0; x < _width; x++)
-                sb.append(values[y][x]).append(' ');
+                sb.append(SudokuCodec.toChar(board.get(y, x))).append(' ');
             sb.append("\r\n");
         }
 
         System.out.println(sb.toString());
     }
 
-    private byte[] encodeRLE(byte[] line)
-    {
-        byte[] encoded = new byte[extremeDataSize];
-        int o = 0;
-        boolean remain4bits = false;
-
-        for (int i = 0; i < line.length; i++)
-        {
-            if (line[i] != '0')
-            {
-                int y = i / _width;
-                int x = i % _width;
-                
-                if (remain4bits)
-                {
-                    encoded[o++] |= y & 0x0F;
-                    encoded[o++] = (byte)((x << 4) | (line[i]-'0'));
-                    remain4bits = false;
-                }
-                else
-                {
-                    encoded[o++] = (byte)((y << 4) | x);
-                    encoded[o] = (byte)((line[i]-'0') << 4);
-                    remain4bits = true;
-                }
-            }
-        }
-
-        return encoded;
-    }
-
     private void encodeData(String inPath, String outPath)
             throws Exception
     {
         BufferedReader br = new BufferedReader(new FileReader(inPath));
         String line;
         BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(outPath));
+        SudokuBoard grid = new SudokuBoard(_width);
+        byte[] encoded = new byte[extremeDataSize];
 
         while ((line = br.readLine()) != null && line.length() > 0)
         {
-            byte[] encoded = encodeRLE(line.getBytes());
+            if (!SudokuCodec.parse(line, grid))
+                throw new Exception("Invalid Sudoku - " + line);
+
+            SudokuCodec.encodeGivens(grid, encoded, 0, extremeDataSize);
             bos.write(encoded);
         }
 
@@ -537,23 +690,18 @@ public class Sudoku
     {
         if (args.length < 2)
         {
-            Sudoku sudoku = new Sudoku(9, SudokuLevel.EXTREME_LEVEL);
+            SudokuSolver solver = new SudokuDLXSolver(9);
+            Sudoku sudoku = new Sudoku(9, SudokuLevel.EXTREME_LEVEL, solver);
 
-            sudoku.printArray(sudoku._problem);
+            sudoku.printBoard(sudoku._problem);
 
-            if (sudoku.solve(false))
-            {
-                System.out.println("\r\n### Solution ###");
-                sudoku.printArray(sudoku._intermediate);
-                if (sudoku.solve(true))
-                {
-                    System.out.println("\r\n### Solution ###");
-                    sudoku.printArray(sudoku._intermediate);
-                }
-                System.out.println("Found possible solutions !!!");
-            }
+            System.out.println("\r\n### Solution ###");
+            sudoku.printBoard(sudoku._answer);
+
+            if (sudoku.countSolutions(sudoku._problem, 2) == 1)
+                System.out.println("Found unique solution !!!");
             else
-                System.out.println("Unsolvable !!!");
+                System.out.println("Found possible solutions !!!");
         }
         else
         {
@@ -0,0 +1,177 @@
+package org.sm.game.sudoku;
+
+/**
+ * Cell-order backtracking. countSolutions continues each search backwards
+ * from the previous solution to look for the next one.
+ */
+public class SudokuBacktrackSolver implements SudokuSolver
+{
+    private static final int CANCEL_POLL_NODES = 4096;
+
+    private int _width;
+    private byte[] _problem;
+    private SudokuBoard _intermediate;
+    private SudokuCandidates _candidates;
+    private long _nodes;
+    private long _nodeLimit;
+    private SudokuCancelToken _cancelToken;
+    private boolean _aborted;
+
+    public SudokuBacktrackSolver(int width)
+    {
+        _width = width;
+        _intermediate = new SudokuBoard(width);
+        _candidates = new SudokuCandidates(width);
+        _nodeLimit = Sudoku.MAX_SOLVE_NODES;
+    }
+
+    public long getNodeCount()
+    {
+        return _nodes;
+    }
+
+    public void setNodeLimit(long nodeLimit)
+    {
+        _nodeLimit = nodeLimit;
+    }
+
+    public void setCancelToken(SudokuCancelToken cancelToken)
+    {
+        _cancelToken = cancelToken;
+    }
+
+    public boolean solve(SudokuBoard problem, SudokuBoard answer)
+    {
+        _problem = problem.getCells();
+
+        boolean solved = solve(false);
+        if (solved)
+            _intermediate.copyInto(answer);
+
+        return solved;
+    }
+
+    public int countSolutions(SudokuBoard problem, int limit)
+    {
+        return countSolutions(problem, limit, null);
+    }
+
+    public int countSolutions(SudokuBoard problem, int limit, SudokuBoard answer)
+    {
+        int count = 0;
+
+        _problem = problem.getCells();
+
+        boolean found = solve(false);
+        if (found && answer != null)
+            _intermediate.copyInto(answer);
+
+        while (found && ++count < limit)
+            found = solve(true);
+
+        return _aborted ? UNKNOWN : count;
+    }
+
+    private boolean solve(boolean cont)
+    {
+        boolean solvable = true;
+        int y, x;
+
+        if (cont)
+        {
+            y = _width - 1;
+            x = _width - 1;
+
+            do
+            {
+                while (x >= 0 && _problem[y * _width + x] != 0)
+                    x--;
+
+                if (x < 0 && y > 0)
+                {
+                    y--;
+                    x = _width - 1;
+                }
+            } while (x >= 0 && y >= 0 && _problem[y * _width + x] != 0);
+        }
+        else
+        {
+            y = 0;
+            x = 0;
+
+            System.arraycopy(_problem, 0, _intermediate.getCells(), 0, _problem.length);
+
+            _candidates.load(_intermediate);
+            _nodes = 0;
+            _aborted = false;
+        }
+
+        while (solvable)
+        {
+            if (x < 0 || y < 0)
+                solvable = false;
+            else if (_problem[y * _width + x] == 0 && !spend())
+                solvable = false;
+            else if (_problem[y * _width + x] != 0 || findValue(y, x))
+            {
+                if (++x >= _width)
+                {
+                    if (++y >= _width)
+                        break;
+                    x = 0;
+                }
+            }
+            else
+            {
+                _intermediate.set(y, x--, 0);
+
+                do
+                {
+                    while (x >= 0 && _problem[y * _width + x] != 0)
+                        x--;
+
+                    if (x < 0 && y > 0)
+                    {
+                        if (y == 1)
+                            y = 0;
+                        else
+                    	    y--;
+                        x = _width - 1;
+                    }
+                } while (x >= 0 && y >= 0 && _problem[y * _width + x] != 0);
+            }
+        }
+
+        return solvable;
+    }
+
+    private boolean findValue(int y, int x)
+    {
+        byte value = _intermediate.get(y, x);
+
+        if (value != 0)
+            _candidates.remove(y, x, value);
+
+        value = (byte)_candidates.nextCandidate(y, x, value);
+        if (value != 0)
+        {
+            _intermediate.set(y, x, value);
+            _candidates.place(y, x, value);
+        }
+
+        return value != 0;
+    }
+
+    /**
+     * Counts a node and returns false once the node limit is exceeded or the
+     * cancel token is set. The token is polled every CANCEL_POLL_NODES nodes.
+     */
+    private boolean spend()
+    {
+        if (++_nodes > _nodeLimit
+            || ((_nodes & (CANCEL_POLL_NODES - 1)) == 0 && _cancelToken != null && _cancelToken.isCancelled()))
+            _aborted = true;
+
+        return !_aborted;
+    }
+}
@@ -0,0 +1,146 @@
+package org.sm.game.sudoku;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file of fixed-size puzzle records mapped into memory, so a record is
+ * read by its index without streaming through the ones before it.
+ *
+ * Each thread reads through its own duplicate of the buffer, so one bank
+ * can be shared by any number of threads.
+ */
+public class SudokuBank
+{
+    public static final String EXTREME_RESOURCE = "data/sudoku17.dat";
+
+    private static SudokuBank extreme;
+    private static boolean extremeLoaded;
+
+    private MappedByteBuffer _buffer;
+    private int _recordSize;
+    private int _count;
+    private ThreadLocal<ByteBuffer> _reader = new ThreadLocal<ByteBuffer>()
+    {
+        protected ByteBuffer initialValue()
+        {
+            return _buffer.duplicate();
+        }
+    };
+
+    public SudokuBank(File file, int recordSize)
+            throws IOException
+    {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try
+        {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Invalid Sudoku Bank - " + file + " is too large to map");
+
+            _buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);     // stays valid once the channel is closed
+        }
+        finally
+        {
+            channel.close();
+        }
+
+        _recordSize = recordSize;
+        _count = _buffer.capacity() / recordSize;   // a partial record at the end is never read
+    }
+
+    public int getCount()
+    {
+        return _count;
+    }
+
+    public int getRecordSize()
+    {
+        return _recordSize;
+    }
+
+    /**
+     * Copies record index into buf at offset.
+     */
+    public void read(int index, byte[] buf, int offset)
+    {
+        if (index < 0 || index >= _count)
+            throw new RuntimeException("Invalid Sudoku Bank Record - " + index + " of " + _count);
+
+        ByteBuffer reader = _reader.get();
+        reader.position(index * _recordSize);
+        reader.get(buf, offset, _recordSize);
+    }
+
+    /**
+     * Returns the extreme bank, mapped the first time it is asked for, or
+     * null if it is missing or cannot be read.
+     */
+    public static synchronized SudokuBank getExtreme()
+    {
+        if (!extremeLoaded)
+        {
+            extremeLoaded = true;
+
+            URL url = SudokuBank.class.getResource(EXTREME_RESOURCE);
+            if (url != null)
+            {
+                try
+                {
+                    extreme = new SudokuBank(locate(url), Sudoku.extremeDataSize);
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return extreme;
+    }
+
+    /**
+     * Returns the file of a resource. A resource that is not a plain file,
+     * such as a jar entry, is copied to a temporary file.
+     */
+    static File locate(URL url)
+            throws IOException
+    {
+        if ("file".equals(url.getProtocol()))
+        {
+            try
+            {
+                return new File(url.toURI());
+            }
+            catch (URISyntaxException e)
+            {
+                throw new IOException("Invalid Sudoku Bank - " + url, e);
+            }
+        }
+
+        File file = File.createTempFile("sudoku", ".dat");
+        file.deleteOnExit();
+
+        InputStream is = url.openStream();
+        try
+        {
+            Files.copy(is, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally
+        {
+            is.close();
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,500 @@
+package org.sm.game.sudoku;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Builds a puzzle bank from a text corpus of any size on a pool of worker
+ * threads.
+ *
+ * The input is read through a FileChannel in chunks of CHUNK_SIZE bytes,
+ * cut at the last line end. Each chunk is a task: a worker parses its lines
+ * in the SudokuCodec format, keeps the puzzles that are well formed and
+ * have exactly one solution, solves them and encodes them as bank records.
+ * The records are written in input order through a SudokuPuzzleBank.Writer
+ * by one thread, which also drops the puzzles that are transforms of one
+ * already written when dedup is on; the workers do the canonicalization.
+ *
+ * Empty lines and lines starting with '#' are skipped. A puzzle is the
+ * first field of a line, up to a space, tab, ',' or ';'. Progress goes to
+ * System.err every PROGRESS_SECONDS, and the throughput and the counts per
+ * outcome at the end.
+ */
+public class SudokuBankEncoder
+{
+    private static final int CHUNK_SIZE = 1 << 18;
+    private static final int QUEUE_PER_THREAD = 4;      // chunks read ahead per worker
+    private static final int PROGRESS_SECONDS = 5;
+
+    static final int ACCEPTED = 0;
+    static final int MALFORMED = 1;
+    static final int UNSOLVABLE = 2;
+    static final int MULTIPLE = 3;
+    static final int UNKNOWN = 4;
+    static final int DUPLICATE = 5;
+
+    private static final String[] STATUS_NAMES = { "accepted", "malformed", "unsolvable", "multiple", "unknown", "duplicate" };
+
+    private String _solverName;
+    private int _threads;
+    private int _width;
+    private SudokuLevel _level;
+    private boolean _dedup;
+    private boolean _progress;
+
+    private ExecutorService _pool;
+    private ThreadLocal<Worker> _workers;
+    private BlockingQueue<Future<Chunk>> _pending;
+    private Future<Chunk> _end;
+    private volatile Exception _writeError;
+
+    private volatile long _bytesRead;
+    private long[] _statusCounts;
+
+    public SudokuBankEncoder(String solverName, int threads, int width, SudokuLevel level, boolean dedup)
+    {
+        int groupWidth = (int)Math.sqrt(width);
+        if (groupWidth * groupWidth != width || width <= 1 || width > Sudoku.MAX_WIDTH)
+            throw new RuntimeException("Invalid Sudoku Width - " + width);
+
+        _solverName = solverName;
+        _threads = threads;
+        _width = width;
+        _level = level;
+        _dedup = dedup;
+        _progress = true;
+        _statusCounts = new long[STATUS_NAMES.length];
+
+        _workers = new ThreadLocal<Worker>()
+        {
+            protected Worker initialValue()
+            {
+                return new Worker();
+            }
+        };
+    }
+
+    /**
+     * Turns the progress and summary lines on System.err on or off.
+     */
+    public void setProgress(boolean progress)
+    {
+        _progress = progress;
+    }
+
+    /**
+     * Returns how many lines of the last run had the outcome status.
+     */
+    long getCount(int status)
+    {
+        return _statusCounts[status];
+    }
+
+    /**
+     * Encodes every puzzle of in into a new bank at out. The bank is
+     * written to out.tmp and moved over out once every record is in, so a
+     * failed run leaves out as it was.
+     */
+    public void run(File in, File out)
+            throws Exception
+    {
+        File temp = new File(out.getPath() + ".tmp");
+        boolean moved = false;
+
+        try
+        {
+            encode(in, temp);
+            Files.move(temp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        }
+        finally
+        {
+            if (!moved)
+                temp.delete();
+        }
+    }
+
+    private void encode(File in, File out)
+            throws Exception
+    {
+        Arrays.fill(_statusCounts, 0);
+        _bytesRead = 0;
+
+        _pool = Executors.newFixedThreadPool(_threads);
+        _pending = new ArrayBlockingQueue<Future<Chunk>>(_threads * QUEUE_PER_THREAD);
+        _end = new FutureTask<Chunk>(new Callable<Chunk>()
+        {
+            public Chunk call()
+            {
+                return null;
+            }
+        });
+
+        SudokuPuzzleBank.Writer writer = new SudokuPuzzleBank.Writer(out, _width);
+        writer.setLevel(_level);
+
+        Thread writerThread = new Thread(new OutputWriter(writer), "SudokuBankWriter");
+        long start = System.nanoTime();
+
+        writerThread.start();
+        try
+        {
+            read(in);
+        }
+        finally
+        {
+            _pending.put(_end);
+            writerThread.join();
+            _pool.shutdown();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        if (_writeError != null)
+            throw _writeError;
+
+        if (_progress)
+            printStats(elapsed);
+    }
+
+    private void read(File in)
+            throws Exception
+    {
+        FileChannel channel = FileChannel.open(in.toPath(), StandardOpenOption.READ);
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+        try
+        {
+            boolean eof = false;
+
+            while (!eof)
+            {
+                while (buffer.hasRemaining() && !eof)
+                    eof = channel.read(buffer) < 0;
+
+                byte[] data = buffer.array();
+                int length = buffer.position();
+                int end = length;
+
+                if (!eof)
+                {
+                    while (end > 0 && data[end - 1] != '\n')
+                        end--;
+                    if (end == 0)
+                        end = length;   // a line longer than a chunk is cut, and rejected
+                }
+
+                if (end > 0)
+                    submit(Arrays.copyOf(data, end));
+
+                _bytesRead += end;
+                System.arraycopy(data, end, data, 0, length - end);
+                buffer.position(length - end);
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Queues a chunk for the workers. Blocks while the output is
+     * QUEUE_PER_THREAD chunks per worker behind.
+     */
+    private void submit(final byte[] data)
+            throws Exception
+    {
+        if (_writeError != null)
+            throw _writeError;
+
+        _pending.put(_pool.submit(new Callable<Chunk>()
+        {
+            public Chunk call()
+            {
+                return _workers.get().encode(data);
+            }
+        }));
+    }
+
+    private void printStats(long elapsed)
+    {
+        long lines = 0;
+        for (long count: _statusCounts)
+            lines += count;
+
+        System.err.println(String.format("puzzles     %d in %.2f s on %d threads (%s)",
+                                         lines, elapsed / 1e9, _threads, _solverName));
+        System.err.println(String.format("throughput  %.1f puzzles/s, %.1f MB/s",
+                                         lines / (elapsed / 1e9), _bytesRead / 1e6 / (elapsed / 1e9)));
+
+        for (int i = 0; i < STATUS_NAMES.length; i++)
+            System.err.println(String.format("%-10s  %d", STATUS_NAMES[i], _statusCounts[i]));
+    }
+
+    /**
+     * The records of a chunk, in input order, and the counts of the lines
+     * that were rejected.
+     */
+    private static class Chunk
+    {
+        private byte[] records;
+        private long[] fingerprints;    // two longs per record when deduplicating
+        private int count;
+        private int[] statusCounts = new int[STATUS_NAMES.length];
+    }
+
+    /**
+     * The solver and buffers of a worker thread.
+     */
+    private class Worker
+    {
+        private SudokuSolver solver;
+        private SudokuCanonicalizer canonicalizer;
+        private SudokuBoard problem;
+        private SudokuBoard answer;
+        private SudokuBoard canonical;
+        private long[] fingerprint;
+        private int recordSize;
+
+        private Worker()
+        {
+            solver = Sudoku.createSolver(_solverName, _width);
+            problem = new SudokuBoard(_width);
+            answer = new SudokuBoard(_width);
+            recordSize = SudokuPuzzleBank.getRecordSize(_width);
+
+            if (_dedup)
+            {
+                canonicalizer = new SudokuCanonicalizer(_width);
+                canonical = new SudokuBoard(_width);
+                fingerprint = new long[2];
+            }
+        }
+
+        private Chunk encode(byte[] data)
+        {
+            Chunk chunk = new Chunk();
+            int cells = _width * _width;
+            int capacity = data.length / cells + 1;     // no more puzzles than that fit
+
+            chunk.records = new byte[capacity * recordSize];
+            if (_dedup)
+                chunk.fingerprints = new long[capacity * 2];
+
+            for (int start = 0; start < data.length; )
+            {
+                int end = start;
+                while (end < data.length && data[end] != '\n')
+                    end++;
+
+                int status = encodeLine(data, start, end, chunk);
+                if (status >= 0)
+                    chunk.statusCounts[status]++;
+
+                start = end + 1;
+            }
+
+            return chunk;
+        }
+
+        /**
+         * Encodes the line data[start..end) into chunk. Returns its outcome,
+         * or -1 for a line that is skipped.
+         */
+        private int encodeLine(byte[] data, int start, int end, Chunk chunk)
+        {
+            while (start < end && Character.isWhitespace(data[start]))
+                start++;
+            if (start == end || data[start] == '#')
+                return -1;
+
+            int fieldEnd = start;
+            while (fieldEnd < end && !isSeparator(data[fieldEnd]))
+                fieldEnd++;
+
+            if (fieldEnd - start != problem.getCellCount())
+                return MALFORMED;
+
+            for (int i = 0; i < fieldEnd - start; i++)
+            {
+                int value = SudokuCodec.fromChar((char)data[start + i]);
+                if (value < 0 || value > _width)
+                    return MALFORMED;
+
+                problem.set(i, value);
+            }
+
+            int count = solver.countSolutions(problem, 2, answer);
+            if (count == SudokuSolver.UNKNOWN)
+                return UNKNOWN;
+            else if (count == 0)
+                return UNSOLVABLE;
+            else if (count > 1)
+                return MULTIPLE;
+
+            SudokuCodec.encodeSolved(problem, answer, chunk.records, chunk.count * recordSize + SudokuPuzzleBank.RATING_SIZE);
+
+            if (_dedup)
+            {
+                SudokuDedupIndex.fingerprint(canonicalizer, problem, canonical, fingerprint);
+                chunk.fingerprints[chunk.count * 2] = fingerprint[0];
+                chunk.fingerprints[chunk.count * 2 + 1] = fingerprint[1];
+            }
+            chunk.count++;
+
+            return ACCEPTED;
+        }
+
+        private boolean isSeparator(byte b)
+        {
+            return b == ' ' || b == '\t' || b == '\r' || b == ',' || b == ';';
+        }
+    }
+
+    /**
+     * Takes the chunks in input order, waiting for each one in turn, and
+     * writes their records. After an error it only drains the queue, so the
+     * reader never blocks on it.
+     */
+    private class OutputWriter implements Runnable
+    {
+        private SudokuPuzzleBank.Writer writer;
+        private SudokuDedupIndex index;
+        private long nextProgress;
+        private long start;
+
+        private OutputWriter(SudokuPuzzleBank.Writer writer)
+        {
+            this.writer = writer;
+            if (_dedup)
+                index = new SudokuDedupIndex(_width);
+        }
+
+        public void run()
+        {
+            Future<Chunk> future;
+
+            start = System.nanoTime();
+            nextProgress = start + PROGRESS_SECONDS * 1000000000L;
+
+            do
+            {
+                try
+                {
+                    future = _pending.take();
+                    if (future != _end && _writeError == null)
+                        write(future.get());
+                }
+                catch (Exception e)
+                {
+                    future = null;
+                    _writeError = e;
+                    _pool.shutdownNow();
+                }
+            } while (future != _end);
+
+            try
+            {
+                writer.close();
+            }
+            catch (Exception e)
+            {
+                if (_writeError == null)
+                    _writeError = e;
+            }
+        }
+
+        private void write(Chunk chunk)
+                throws Exception
+        {
+            int recordSize = writer.getRecordSize();
+
+            for (int i = 0; i < STATUS_NAMES.length; i++)
+                _statusCounts[i] += chunk.statusCounts[i];
+
+            if (_dedup)
+            {
+                // keep the first of each form, moving the records down over the duplicates
+                int kept = 0;
+                for (int i = 0; i < chunk.count; i++)
+                {
+                    if (index.add(chunk.fingerprints[i * 2], chunk.fingerprints[i * 2 + 1]))
+                    {
+                        if (kept != i)
+                            System.arraycopy(chunk.records, i * recordSize, chunk.records, kept * recordSize, recordSize);
+                        kept++;
+                    }
+                }
+
+                _statusCounts[ACCEPTED] -= chunk.count - kept;
+                _statusCounts[DUPLICATE] += chunk.count - kept;
+                chunk.count = kept;
+            }
+
+            writer.write(chunk.records, 0, chunk.count);
+
+            long now = System.nanoTime();
+            if (_progress && now >= nextProgress)
+            {
+                nextProgress = now + PROGRESS_SECONDS * 1000000000L;
+                System.err.println(String.format("%.1f MB read, %d puzzles written, %.1f puzzles/s",
+                                                 _bytesRead / 1e6, writer.getCount(),
+                                                 writer.getCount() / ((now - start) / 1e9)));
+            }
+        }
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        String solverName = "dlx";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int width = Sudoku.EXTREME_WIDTH;
+        SudokuLevel level = SudokuLevel.EXTREME_LEVEL;
+        boolean dedup = false;
+        int i = 0;
+
+        for (; i < args.length && args[i].startsWith("-"); i += 2)
+        {
+            if ("-d".equals(args[i]))
+            {
+                dedup = true;
+                i--;
+            }
+            else if (i + 1 >= args.length)
+                break;
+            else if ("-t".equals(args[i]))
+                threads = Integer.parseInt(args[i + 1]);
+            else if ("-s".equals(args[i]))
+                solverName = args[i + 1];
+            else if ("-w".equals(args[i]))
+                width = Integer.parseInt(args[i + 1]);
+            else if ("-l".equals(args[i]))
+                level = SudokuLevel.getLevel(args[i + 1]);
+            else
+                break;
+        }
+
+        if (args.length - i != 2 || level == null)
+        {
+            System.err.println("Usage: SudokuBankEncoder [-t threads] [-s backtrack|dlx|propagation|parallel] [-w width]"
+                               + " [-l level] [-d] input output.bank");
+            System.exit(2);
+        }
+
+        new SudokuBankEncoder(solverName, threads, width, level, dedup).run(new File(args[i]), new File(args[i + 1]));
+    }
+}
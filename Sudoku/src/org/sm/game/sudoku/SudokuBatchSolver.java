@@ -0,0 +1,401 @@
+package org.sm.game.sudoku;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Solves and validates a file of puzzles on a pool of worker threads.
+ *
+ * The input is either text, one puzzle per line in the SudokuCodec format,
+ * or a .dat file of extreme bank records. Puzzles are read only as fast as
+ * the workers take them, each worker solves with its own solver, and the
+ * solutions are written in input order, one line per puzzle:
+ *
+ *   solution            the puzzle has a unique solution
+ *   solution multiple   the puzzle has more than one solution
+ *   - unsolvable        the puzzle has no solution
+ *   - unknown           the solver gave up
+ *   - invalid           the line is not a puzzle
+ *
+ * Throughput, latency percentiles and the counts per outcome are printed to
+ * System.err at the end.
+ */
+public class SudokuBatchSolver
+{
+    private static final int QUEUE_PER_THREAD = 64;     // puzzles read ahead per worker
+
+    private static final int UNIQUE = 0;
+    private static final int MULTIPLE = 1;
+    private static final int UNSOLVABLE = 2;
+    private static final int UNKNOWN = 3;
+    private static final int INVALID = 4;
+
+    private static final String[] STATUS_NAMES = { "unique", "multiple", "unsolvable", "unknown", "invalid" };
+
+    private String _solverName;
+    private int _threads;
+    private ExecutorService _pool;
+    private ThreadLocal<SudokuSolver[]> _solvers;
+    private BlockingQueue<Future<Result>> _pending;
+    private Future<Result> _end;
+    private volatile Exception _writeError;
+
+    private long[] _latencies;
+    private int _count;
+    private long[] _statusCounts;
+
+    public SudokuBatchSolver(String solverName, int threads)
+    {
+        _solverName = solverName;
+        _threads = threads;
+        _latencies = new long[1024];
+        _statusCounts = new long[STATUS_NAMES.length];
+
+        _solvers = new ThreadLocal<SudokuSolver[]>()
+        {
+            protected SudokuSolver[] initialValue()
+            {
+                return new SudokuSolver[Sudoku.MAX_WIDTH + 1];
+            }
+        };
+    }
+
+    /**
+     * Solves every puzzle of in and writes the results to out.
+     */
+    public void run(String inPath, Writer out)
+            throws Exception
+    {
+        _pool = Executors.newFixedThreadPool(_threads);
+        _pending = new ArrayBlockingQueue<Future<Result>>(_threads * QUEUE_PER_THREAD);
+        _end = new FutureTask<Result>(new Callable<Result>()
+        {
+            public Result call()
+            {
+                return null;
+            }
+        });
+
+        Thread writerThread = new Thread(new OutputWriter(out), "SudokuBatchWriter");
+        long start = System.nanoTime();
+
+        writerThread.start();
+        try
+        {
+            if (inPath.endsWith(".dat"))
+                readData(inPath);
+            else
+                readText(inPath);
+        }
+        finally
+        {
+            _pending.put(_end);
+            writerThread.join();
+            _pool.shutdown();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        if (_writeError != null)
+            throw _writeError;
+
+        printStats(elapsed);
+    }
+
+    private void readText(String inPath)
+            throws Exception
+    {
+        BufferedReader br = new BufferedReader(new FileReader(inPath));
+
+        try
+        {
+            String line;
+            while ((line = br.readLine()) != null)
+            {
+                line = line.trim();
+                if (line.length() > 0)
+                    submit(parseLine(line));
+            }
+        }
+        finally
+        {
+            br.close();
+        }
+    }
+
+    private void readData(String inPath)
+            throws Exception
+    {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(inPath)));
+        byte[] record = new byte[Sudoku.extremeDataSize];
+
+        try
+        {
+            while (readRecord(dis, record))
+            {
+                SudokuBoard board = new SudokuBoard(Sudoku.EXTREME_WIDTH);
+
+                SudokuCodec.decodeGivens(record, 0, record.length, board);
+                submit(board);
+            }
+        }
+        finally
+        {
+            dis.close();
+        }
+    }
+
+    private boolean readRecord(DataInputStream dis, byte[] record)
+            throws IOException
+    {
+        boolean result = true;
+
+        try
+        {
+            dis.readFully(record);
+        }
+        catch (EOFException e)
+        {
+            result = false;     // a trailing partial record is ignored
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the board of a text line, or null if it is not a puzzle.
+     */
+    private SudokuBoard parseLine(String line)
+    {
+        int width = (int)Math.sqrt(line.length());
+        int groupWidth = (int)Math.sqrt(width);
+        SudokuBoard board = null;
+
+        if (width * width == line.length() && groupWidth * groupWidth == width
+            && width > 1 && width <= Sudoku.MAX_WIDTH)
+        {
+            board = new SudokuBoard(width);
+            if (!SudokuCodec.parse(line, board))
+                board = null;
+        }
+
+        return board;
+    }
+
+    /**
+     * Queues a puzzle for the workers. Blocks while the output is
+     * QUEUE_PER_THREAD puzzles per worker behind.
+     */
+    private void submit(final SudokuBoard problem)
+            throws Exception
+    {
+        if (_writeError != null)
+            throw _writeError;
+
+        _pending.put(_pool.submit(new Callable<Result>()
+        {
+            public Result call()
+            {
+                return solve(problem);
+            }
+        }));
+    }
+
+    private Result solve(SudokuBoard problem)
+    {
+        Result result = new Result();
+        long start = System.nanoTime();
+
+        if (problem == null)
+            result.status = INVALID;
+        else
+        {
+            SudokuSolver solver = getSolver(problem.getWidth());
+            SudokuBoard answer = new SudokuBoard(problem.getWidth());
+            int count = solver.countSolutions(problem, 2, answer);
+
+            if (count == SudokuSolver.UNKNOWN)
+                result.status = UNKNOWN;
+            else if (count == 0)
+                result.status = UNSOLVABLE;
+            else
+            {
+                result.answer = answer;
+                result.status = count == 1 ? UNIQUE : MULTIPLE;
+            }
+        }
+
+        result.nanos = System.nanoTime() - start;
+
+        return result;
+    }
+
+    /**
+     * Returns the solver of the current worker for the width.
+     */
+    private SudokuSolver getSolver(int width)
+    {
+        SudokuSolver[] solvers = _solvers.get();
+
+        if (solvers[width] == null)
+            solvers[width] = Sudoku.createSolver(_solverName, width);
+
+        return solvers[width];
+    }
+
+    private void addResult(Result result)
+    {
+        if (_count == _latencies.length)
+            _latencies = Arrays.copyOf(_latencies, _count * 2);
+
+        _latencies[_count++] = result.nanos;
+        _statusCounts[result.status]++;
+    }
+
+    private void printStats(long elapsed)
+    {
+        long[] sorted = Arrays.copyOf(_latencies, _count);
+        Arrays.sort(sorted);
+
+        System.err.println(String.format("puzzles     %d in %.2f s on %d threads (%s)",
+                                         _count, elapsed / 1e9, _threads, _solverName));
+        System.err.println(String.format("throughput  %.1f puzzles/s",
+                                         _count / (elapsed / 1e9)));
+        System.err.println(String.format("latency     p50 %.3f ms  p99 %.3f ms  max %.3f ms",
+                                         percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6,
+                                         _count > 0 ? sorted[_count - 1] / 1e6 : 0.0));
+
+        for (int i = 0; i < STATUS_NAMES.length; i++)
+            System.err.println(String.format("%-10s  %d", STATUS_NAMES[i], _statusCounts[i]));
+    }
+
+    private static long percentile(long[] sorted, int percent)
+    {
+        if (sorted.length == 0)
+            return 0;
+
+        int index = (int)Math.ceil(sorted.length * percent / 100.0) - 1;
+
+        return sorted[Math.max(index, 0)];
+    }
+
+    private static class Result
+    {
+        private int status;
+        private SudokuBoard answer;
+        private long nanos;
+    }
+
+    /**
+     * Takes the results in input order, waiting for each one in turn, and
+     * writes them out. After an error it only drains the queue, so the
+     * reader never blocks on it.
+     */
+    private class OutputWriter implements Runnable
+    {
+        private Writer out;
+
+        private OutputWriter(Writer out)
+        {
+            this.out = out;
+        }
+
+        public void run()
+        {
+            Future<Result> future;
+
+            do
+            {
+                try
+                {
+                    future = _pending.take();
+                    if (future != _end && _writeError == null)
+                        write(future.get());
+                }
+                catch (Exception e)
+                {
+                    future = null;
+                    _writeError = e;
+                    _pool.shutdownNow();
+                }
+            } while (future != _end);
+
+            try
+            {
+                out.flush();
+            }
+            catch (IOException e)
+            {
+                if (_writeError == null)
+                    _writeError = e;
+            }
+        }
+
+        private void write(Result result)
+                throws IOException
+        {
+            addResult(result);
+
+            if (result.answer == null)
+                out.write("- ");
+            else
+                out.write(SudokuCodec.format(result.answer));
+
+            if (result.status != UNIQUE)
+            {
+                if (result.answer != null)
+                    out.write(' ');
+                out.write(STATUS_NAMES[result.status]);
+            }
+            out.write('\n');
+        }
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        String solverName = "dlx";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+
+        for (; i < args.length && args[i].startsWith("-"); i += 2)
+        {
+            if (i + 1 >= args.length)
+                break;
+            else if ("-t".equals(args[i]))
+                threads = Integer.parseInt(args[i + 1]);
+            else if ("-s".equals(args[i]))
+                solverName = args[i + 1];
+            else
+                break;
+        }
+
+        if (i >= args.length || args.length - i > 2)
+        {
+            System.err.println("Usage: SudokuBatchSolver [-t threads] [-s backtrack|dlx|propagation|parallel] input [output]");
+            System.exit(2);
+        }
+
+        Writer out;
+        if (args.length - i > 1)
+            out = new BufferedWriter(new FileWriter(args[i + 1]));
+        else
+            out = new BufferedWriter(new OutputStreamWriter(System.out));
+
+        try
+        {
+            new SudokuBatchSolver(solverName, threads).run(args[i], out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,1951 @@
+package org.sm.game.sudoku;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Command line benchmarks.
+ *
+ * generate [count] - generation time per board width and level
+ * alloc [count]    - bytes allocated per generated puzzle once warmed up,
+ *                    exits with 1 if any generator allocates in each of
+ *                    ALLOC_ROUNDS rounds
+ * dig [count]      - puzzles/s of sequential and parallel hole digging
+ * seed [count]     - puzzles/s minted from daily seeds, exits with 1 if a
+ *                    seed or a split does not give the same puzzle again
+ * mint [count]     - puzzles/s made by transforming generated puzzles,
+ *                    exits with 1 if a checked one is not unique
+ * canon [count]    - minlex forms/s of transformed puzzles, exits with 1 if
+ *                    a transform changes the form or escapes the dedup index
+ * bank [count]     - cold and warm time to read a random record of a bank,
+ *                    streamed as before and mapped, and load time with and
+ *                    without stored answers, exits with 1 if a record read
+ *                    back differs from the one written
+ * encode [count]   - puzzles/s of building a bank from a text corpus, with
+ *                    and without dedup, exits with 1 if a planted bad line
+ *                    or duplicate is not counted or a record differs
+ * parallel [count] - ms per solve and per count to 2 of the propagation
+ *                    and the parallel solver on 17-clue 9x9 and Hard 16x16
+ *                    puzzles, exits with 1 if the solvers do not both find
+ *                    the single solution, or one parallel solver that
+ *                    always splits does not when SHARED_CALLERS threads
+ *                    call it at once
+ * shard [count]    - generates count puzzles per level in shards on three
+ *                    JVMs and merges them, exits with 1 if a shard is not
+ *                    reproducible, a duplicate shard adds puzzles or a
+ *                    corrupt one is merged
+ * rate [count]     - puzzles tried per kept puzzle, the share kept inside
+ *                    the band, ms per kept puzzle and the ratings of each
+ *                    level, Extreme on count / 10 picks from a bank of
+ *                    transformed 17-clue puzzles, exits with 1 if a puzzle
+ *                    is kept outside its band before the tries run out or
+ *                    rating a random transform of it gives another rating
+ * step [count]     - us per hint of the logical step solver over
+ *                    generated 9x9 puzzles and half-empty 16x16 and 25x25
+ *                    grids, exits with 1 if a step places or eliminates
+ *                    against the answer
+ * input [count]    - ns per guess typed into a panel per board width, and
+ *                    with the two scans of the cells added that each guess
+ *                    ran before the panel counted empty and wrong cells,
+ *                    and ns of the two scans on a solved board; exits with
+ *                    1 if the solved, good-so-far or conflict state
+ *                    differs from a scan of the cells or solving the board
+ *                    does not fire onSolved once
+ * marks [count]    - us to fill every cell with its candidates and ns per
+ *                    guess that clears its value from the peers' marks,
+ *                    exits with 1 if a filled mark is not a candidate, a
+ *                    peer keeps the mark or undo and redo do not give the
+ *                    marks back exactly
+ * undo [count]     - bytes of undo log and allocation per move and the
+ *                    time of undo to last good as one jump and one move at
+ *                    a time, exits with 1 if the jump does not give the
+ *                    board of the last good guess or redo does not give the
+ *                    board back
+ * save [count]     - us per move of journaling a game, us to compact it
+ *                    into a snapshot and ms to resume it, exits with 1 if a
+ *                    resumed game differs from the one saved, hint
+ *                    eliminations included, a record cut short is not
+ *                    dropped, a corrupt snapshot or journal is resumed or
+ *                    reset leaves a panel that differs from a new one
+ */
+public class SudokuBenchmark
+{
+    private static final int[] WIDTHS = { 9, 16, 25 };
+    private static final String DIG_SOLVER = "dlx";    // the backtracking solver's long tail swamps the timing
+    private static final int BANK_RECORDS = 50000;      // about the size of the extreme bank
+    private static final int CONFLICT_CHECK_EVERY = 64; // guesses between brute-force conflict checks
+    private static final int ALLOC_ROUNDS = 5;          // measured rounds of alloc, one without allocation passes
+    private static final int SHARED_CALLERS = 4;        // threads calling one parallel solver at once
+    private static final int HINT_GAMES = 10;           // games followed through their hints by save
+
+    // 17-clue puzzles with a single solution, the fewest givens a 9x9 puzzle can have
+    private static final String[] SEVENTEEN_CLUES =
+    {
+        "000000010400000000020000000000050407008000300001090000300400200050100000000806000",
+        "000000010400000000020000000000050604008000300001090000300400200050100000000807000",
+        "000000000000003085001020000000507000004000100090000000500000073002010000000040009",
+    };
+
+    private static void benchmarkGenerate(int count)
+    {
+        System.out.println("width  level     puzzles  ms/puzzle  givens/puzzle");
+
+        for (int width: WIDTHS)
+        {
+            for (String levelName: SudokuLevel.getLevelStrings())
+            {
+                SudokuLevel level = SudokuLevel.getLevel(levelName);
+                if (SudokuLevel.EXTREME_LEVEL.equals(level) && width == Sudoku.EXTREME_WIDTH)
+                    continue;       // loaded from the extreme bank, not generated
+
+                SudokuSolver solver = new SudokuPropagationSolver(width);
+                solver.setNodeLimit(Sudoku.MAX_PROPAGATION_NODES);
+                long givens = 0;
+
+                new Sudoku(width, level, solver);   // warm up
+
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++)
+                    givens += new Sudoku(width, level, solver).getActualInitial();
+                long elapsed = System.nanoTime() - start;
+
+                System.out.println(String.format("%5d  %-8s  %7d  %9.2f  %13.1f",
+                                                 width, levelName, count,
+                                                 elapsed / 1e6 / count, (double)givens / count));
+            }
+        }
+    }
+
+    private static boolean benchmarkAllocation(int count)
+    {
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        SudokuLevel[] levels = { SudokuLevel.EASY_LEVEL, SudokuLevel.MEDIUM_LEVEL, SudokuLevel.HARD_LEVEL };
+        SudokuSolver[] solvers = { new SudokuBacktrackSolver(9), new SudokuDLXSolver(9), new SudokuPropagationSolver(9) };
+        boolean passed = true;
+
+        System.out.println("solver                    level     puzzles  rounds  bytes/puzzle");
+
+        for (SudokuSolver solver: solvers)
+        {
+            Sudoku sudoku = new Sudoku(9, solver);
+
+            for (SudokuLevel level: levels)
+            {
+                for (int i = 0; i < count; i++)     // warm up
+                    sudoku.generate(level);
+
+                // a method queued for compilation has the string constants of
+                // its class resolved on the calling thread, once; a round that
+                // a compile falls in is measured again
+                long allocated = 0;
+                int rounds = 0;
+                do
+                {
+                    long before = bean.getThreadAllocatedBytes(threadId);
+                    for (int i = 0; i < count; i++)
+                        sudoku.generate(level);
+                    allocated = bean.getThreadAllocatedBytes(threadId) - before;
+                    rounds++;
+                } while (allocated != 0 && rounds < ALLOC_ROUNDS);
+
+                passed = passed && allocated == 0;
+
+                System.out.println(String.format("%-24s  %-8s  %7d  %6d  %12.1f",
+                                                 solver.getClass().getSimpleName(), level.getName(),
+                                                 count, rounds, (double)allocated / count));
+            }
+        }
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    private static void benchmarkDig(int count)
+    {
+        SudokuLevel[] levels = { SudokuLevel.MEDIUM_LEVEL, SudokuLevel.HARD_LEVEL };
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int batch = Math.max(pool.getParallelism(), 2);
+
+        System.out.println(String.format("parallelism %d, batch %d, %s solver", pool.getParallelism(), batch, DIG_SOLVER));
+        System.out.println("level     dig         puzzles  puzzles/s  givens/puzzle");
+
+        for (SudokuLevel level: levels)
+        {
+            for (int parallel = 0; parallel < 2; parallel++)
+            {
+                Sudoku sudoku = new Sudoku(9, Sudoku.createSolver(DIG_SOLVER, 9));
+                if (parallel == 1)
+                    sudoku.setDigPool(pool, batch, DIG_SOLVER);
+
+                for (int i = 0; i < count; i++)     // warm up
+                    sudoku.generate(level);
+
+                long givens = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++)
+                {
+                    sudoku.generate(level);
+                    givens += sudoku.getActualInitial();
+                }
+                long elapsed = System.nanoTime() - start;
+
+                System.out.println(String.format("%-8s  %-10s  %7d  %9.1f  %13.1f",
+                                                 level.getName(), parallel == 1 ? "parallel" : "sequential",
+                                                 count, count / (elapsed / 1e9), (double)givens / count));
+            }
+        }
+    }
+
+    private static boolean benchmarkSeed(int count)
+    {
+        SudokuLevel[] levels = { SudokuLevel.EASY_LEVEL, SudokuLevel.MEDIUM_LEVEL, SudokuLevel.HARD_LEVEL };
+        LocalDate today = LocalDate.now();
+        SudokuBoard first = new SudokuBoard(9);
+        boolean passed = true;
+
+        System.out.println("level     puzzles  puzzles/s  mismatches");
+
+        for (SudokuLevel level: levels)
+        {
+            Sudoku sudoku = new Sudoku(9);
+            Sudoku again = new Sudoku(9);
+            int mismatches = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                sudoku.generate(level, Sudoku.getDailySeed(today.plusDays(i), level));
+            long elapsed = System.nanoTime() - start;
+
+            for (int i = 0; i < count; i++)
+            {
+                long seed = Sudoku.getDailySeed(today.plusDays(i), level);
+
+                sudoku.generate(level, seed);
+                sudoku.getProblemBoard().copyInto(first);
+                again.generate(level, seed);
+                if (!first.equals(again.getProblemBoard()))
+                    mismatches++;
+            }
+
+            // splits taken in the same order from the same seed give the same stream
+            sudoku.generate(level, count);
+            again.generate(level, count);
+            Sudoku split = sudoku.split(Sudoku.createSolver(9));
+            Sudoku splitAgain = again.split(Sudoku.createSolver(9));
+            for (int i = 0; i < count; i++)
+            {
+                split.generate(level);
+                split.getProblemBoard().copyInto(first);
+                splitAgain.generate(level);
+                if (!first.equals(splitAgain.getProblemBoard()))
+                    mismatches++;
+            }
+
+            passed = passed && mismatches == 0;
+
+            System.out.println(String.format("%-8s  %7d  %9.1f  %10d",
+                                             level.getName(), count, count / (elapsed / 1e9), mismatches));
+        }
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    private static boolean benchmarkMint(int count)
+    {
+        SudokuLevel[] levels = { SudokuLevel.EASY_LEVEL, SudokuLevel.MEDIUM_LEVEL, SudokuLevel.HARD_LEVEL };
+        SudokuSolver checker = new SudokuDLXSolver(9);
+        int checkEvery = Math.max(count / 100, 1);
+        boolean passed = true;
+
+        System.out.println("level     puzzles  us/puzzle  generate us/puzzle  checked  failed");
+
+        for (SudokuLevel level: levels)
+        {
+            Sudoku sudoku = new Sudoku(9, checker);
+
+            long start = System.nanoTime();
+            sudoku.generate(level);
+            long generated = System.nanoTime() - start;
+
+            SudokuPuzzle base = new SudokuPuzzle(sudoku);
+            int checked = 0;
+            int failed = 0;
+
+            for (int i = 0; i < count; i++)     // warm up
+                sudoku.mint(base);
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                sudoku.mint(base);
+            long elapsed = System.nanoTime() - start;
+
+            for (int i = 0; i < count; i += checkEvery)
+            {
+                sudoku.mint(base);
+                if (checker.countSolutions(sudoku.getProblemBoard(), 2) != 1
+                    || sudoku.getProblemBoard().countGivens() != base.getActualInitial()
+                    || !isAnswerOf(sudoku.getAnswerBoard(), sudoku.getProblemBoard()))
+                    failed++;
+                checked++;
+            }
+
+            passed = passed && failed == 0;
+
+            System.out.println(String.format("%-8s  %7d  %9.2f  %18.1f  %7d  %6d",
+                                             level.getName(), count, elapsed / 1e3 / count,
+                                             generated / 1e3, checked, failed));
+        }
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    private static boolean benchmarkCanonical(int count)
+    {
+        SudokuLevel[] levels = { SudokuLevel.EASY_LEVEL, SudokuLevel.MEDIUM_LEVEL, SudokuLevel.HARD_LEVEL };
+        SudokuPuzzle[] bases = new SudokuPuzzle[30];
+        SudokuBoard[] forms = new SudokuBoard[bases.length];
+        SudokuCanonicalizer canonicalizer = new SudokuCanonicalizer(9);
+        SudokuDedupIndex index = new SudokuDedupIndex(9);
+        Sudoku sudoku = new Sudoku(9, new SudokuDLXSolver(9));
+        SudokuBoard form = new SudokuBoard(9);
+        int mismatches = 0;
+
+        for (int i = 0; i < bases.length; i++)
+        {
+            sudoku.generate(levels[i % levels.length]);
+            bases[i] = new SudokuPuzzle(sudoku);
+            forms[i] = new SudokuBoard(9);
+            canonicalizer.canonicalize(bases[i].getProblemBoard(), forms[i]);
+            index.add(bases[i].getProblemBoard());
+        }
+        int distinct = index.size();
+
+        for (int i = 0; i < count; i++)     // warm up
+        {
+            sudoku.mint(bases[i % bases.length]);
+            canonicalizer.canonicalize(sudoku.getProblemBoard(), form);
+        }
+
+        long elapsed = 0;
+        for (int i = 0; i < count; i++)
+        {
+            sudoku.mint(bases[i % bases.length]);
+
+            long start = System.nanoTime();
+            canonicalizer.canonicalize(sudoku.getProblemBoard(), form);
+            elapsed += System.nanoTime() - start;
+
+            if (!form.equals(forms[i % bases.length]) || index.add(sudoku.getProblemBoard()))
+                mismatches++;
+        }
+
+        System.out.println("puzzles  forms/s  us/form  bases  distinct  mismatches");
+        System.out.println(String.format("%7d  %7.0f  %7.2f  %5d  %8d  %10d",
+                                         count, count / (elapsed / 1e9), elapsed / 1e3 / count,
+                                         bases.length, distinct, mismatches));
+
+        boolean passed = mismatches == 0 && index.size() == distinct;
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    private static boolean benchmarkBank(int count)
+            throws IOException
+    {
+        int size = Sudoku.extremeDataSize;
+        byte[] records = new byte[BANK_RECORDS * size];
+        File file = File.createTempFile("sudoku", ".dat");
+        file.deleteOnExit();
+
+        // the extreme bank is not shipped, so make one with 17 cells of transformed answers
+        Sudoku sudoku = new Sudoku(9, new SudokuDLXSolver(9));
+        SudokuPuzzle[] bases = new SudokuPuzzle[10];
+        SudokuBoard givens = new SudokuBoard(9);
+        for (int i = 0; i < bases.length; i++)
+        {
+            sudoku.generate(SudokuLevel.HARD_LEVEL);
+            bases[i] = new SudokuPuzzle(sudoku);
+        }
+        for (int i = 0; i < BANK_RECORDS; i++)
+        {
+            sudoku.mint(bases[i % bases.length]);
+            givens.reset();
+            for (int j = 0; j < 17; j++)
+                givens.set(j * 81 / 17, sudoku.getAnswerBoard().get(j * 81 / 17));
+            SudokuCodec.encodeGivens(givens, records, i * size, size);
+        }
+
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try
+        {
+            os.write(records);
+        }
+        finally
+        {
+            os.close();
+        }
+
+        SplittableRandom random = new SplittableRandom(1);
+        byte[] buf = new byte[size];
+        int mismatches = 0;
+
+        // the first access also loads the classes it needs, cold ones open the file again
+        long[] stream = new long[3];
+        long[] mapped = new long[3];
+        SudokuBank bank = null;
+        int index;
+
+        for (int pass = 0; pass < 2; pass++)
+        {
+            long start = System.nanoTime();
+            readStreamed(file, random.nextInt(BANK_RECORDS), buf);
+            stream[pass] = System.nanoTime() - start;
+
+            index = random.nextInt(BANK_RECORDS);
+            start = System.nanoTime();
+            bank = new SudokuBank(file, size);
+            bank.read(index, buf, 0);
+            mapped[pass] = System.nanoTime() - start;
+
+            mismatches += compare(records, index * size, buf);
+        }
+
+        for (int i = 0; i < count; i++)     // warm up
+        {
+            readStreamed(file, random.nextInt(BANK_RECORDS), buf);
+            bank.read(random.nextInt(BANK_RECORDS), buf, 0);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            readStreamed(file, random.nextInt(BANK_RECORDS), buf);
+        stream[2] = System.nanoTime() - start;
+
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++)
+            indexes[i] = random.nextInt(BANK_RECORDS);
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            bank.read(indexes[i], buf, 0);
+        mapped[2] = System.nanoTime() - start;
+
+        for (int i = 0; i < count; i++)
+        {
+            bank.read(indexes[i], buf, 0);
+            mismatches += compare(records, indexes[i] * size, buf);
+        }
+
+        System.out.println(String.format("%d records, %d reads", bank.getCount(), count));
+        System.out.println("access    first us  cold us  warm us/record");
+        System.out.println(String.format("%-8s  %8.1f  %7.1f  %14.3f", "streamed",
+                                         stream[0] / 1e3, stream[1] / 1e3, stream[2] / 1e3 / count));
+        System.out.println(String.format("%-8s  %8.1f  %7.1f  %14.3f", "mapped",
+                                         mapped[0] / 1e3, mapped[1] / 1e3, mapped[2] / 1e3 / count));
+
+        // the versioned bank stores the answers, so a load no longer runs the solver
+        File converted = File.createTempFile("sudoku", ".bank");
+        converted.deleteOnExit();
+
+        start = System.nanoTime();
+        SudokuPuzzleBank.convert(file, converted);
+        long convert = System.nanoTime() - start;
+
+        SudokuPuzzleBank puzzles = new SudokuPuzzleBank(converted);
+        SudokuSolver solver = new SudokuDLXSolver(9);
+        SudokuBoard problem = new SudokuBoard(9);
+        SudokuBoard answer = new SudokuBoard(9);
+        SudokuBoard expected = new SudokuBoard(9);
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+        {
+            bank.read(indexes[i], buf, 0);
+            SudokuCodec.decodeGivens(buf, 0, size, problem);
+            solver.solve(problem, answer);
+        }
+        long solved = System.nanoTime() - start;
+
+        sudoku.setBank(puzzles);
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++)
+            sudoku.generate(SudokuLevel.EXTREME_LEVEL);
+        long picked = System.nanoTime() - start;
+
+        for (int i = 0; i < puzzles.getCount(); i++)
+        {
+            puzzles.read(i, problem, answer);
+            SudokuCodec.decodeGivens(records, i * size, size, expected);
+
+            if (!problem.equals(expected) || !isAnswerOf(answer, problem))
+                mismatches++;
+        }
+
+        System.out.println(String.format("%d records converted in %.1f ms, %d bytes each",
+                                         puzzles.getCount(), convert / 1e6, SudokuPuzzleBank.getRecordSize(9)));
+        System.out.println("load              us/puzzle");
+        System.out.println(String.format("%-16s  %9.3f", "givens + solve", solved / 1e3 / count));
+        System.out.println(String.format("%-16s  %9.3f", "solved pick", picked / 1e3 / count));
+
+        boolean passed = mismatches == 0 && bank.getCount() == BANK_RECORDS && puzzles.getCount() == BANK_RECORDS
+                         && puzzles.getCount(SudokuLevel.EXTREME_LEVEL) == BANK_RECORDS;
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    private static boolean benchmarkEncode(int count)
+            throws Exception
+    {
+        File text = File.createTempFile("sudoku", ".txt");
+        File out = File.createTempFile("sudoku", ".bank");
+        text.deleteOnExit();
+        out.deleteOnExit();
+
+        // transforms of a few bases, so dedup keeps only the bases, with bad lines planted
+        Sudoku sudoku = new Sudoku(9, new SudokuDLXSolver(9));
+        SudokuPuzzle[] bases = new SudokuPuzzle[30];
+        SudokuBoard[] problems = new SudokuBoard[count];
+        long[] planted = new long[SudokuBankEncoder.DUPLICATE + 1];
+        for (int i = 0; i < bases.length; i++)
+        {
+            sudoku.generate(SudokuLevel.HARD_LEVEL);
+            bases[i] = new SudokuPuzzle(sudoku);
+        }
+
+        Writer writer = new FileWriter(text);
+        try
+        {
+            writer.write("# benchmark corpus\n");
+            for (int i = 0; i < count; i++)
+            {
+                sudoku.mint(bases[i % bases.length]);
+                problems[i] = new SudokuBoard(9);
+                sudoku.getProblemBoard().copyInto(problems[i]);
+                writer.write(SudokuCodec.format(problems[i]) + (i % 2 == 0 ? "\n" : " ; a comment\r\n"));
+
+                if (i % 50 == 0)
+                {
+                    writer.write("not a puzzle\n\n");
+                    planted[SudokuBankEncoder.MALFORMED]++;
+                }
+                else if (i % 50 == 1)
+                {
+                    SudokuBoard board = new SudokuBoard(9);
+                    for (int x = 0; x < 9; x++)
+                        board.set(0, x, sudoku.getAnswerBoard().get(0, x));
+                    writer.write(SudokuCodec.format(board) + "\n");
+                    planted[SudokuBankEncoder.MULTIPLE]++;
+
+                    board.set(1, 0, board.get(0, 1));       // the same value twice in a group
+                    writer.write(SudokuCodec.format(board) + "\n");
+                    planted[SudokuBankEncoder.UNSOLVABLE]++;
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        boolean passed = true;
+
+        System.out.println(String.format("%d puzzles, %.1f MB", count, text.length() / 1e6));
+        System.out.println("threads  dedup  puzzles/s  accepted  malformed  unsolvable  multiple  duplicate");
+
+        for (int threads: new int[] { 1, Math.max(Runtime.getRuntime().availableProcessors(), 2) })
+        {
+            for (boolean dedup: new boolean[] { false, true })
+            {
+                SudokuBankEncoder encoder = new SudokuBankEncoder("dlx", threads, 9, SudokuLevel.HARD_LEVEL, dedup);
+                encoder.setProgress(false);
+
+                long start = System.nanoTime();
+                encoder.run(text, out);
+                long elapsed = System.nanoTime() - start;
+
+                SudokuPuzzleBank bank = new SudokuPuzzleBank(out);
+                SudokuBoard problem = new SudokuBoard(9);
+                SudokuBoard answer = new SudokuBoard(9);
+                long accepted = dedup ? Math.min(bases.length, count) : count;
+                int mismatches = 0;
+
+                for (int i = 0; i < bank.getCount(); i++)
+                {
+                    bank.read(i, problem, answer);
+                    if (!problem.equals(problems[i]) || !isAnswerOf(answer, problem))
+                        mismatches++;
+                }
+
+                passed = passed && mismatches == 0 && bank.getCount() == accepted
+                         && bank.getCount(SudokuLevel.HARD_LEVEL) == accepted
+                         && encoder.getCount(SudokuBankEncoder.ACCEPTED) == accepted
+                         && encoder.getCount(SudokuBankEncoder.DUPLICATE) == count - accepted
+                         && encoder.getCount(SudokuBankEncoder.MALFORMED) == planted[SudokuBankEncoder.MALFORMED]
+                         && encoder.getCount(SudokuBankEncoder.UNSOLVABLE) == planted[SudokuBankEncoder.UNSOLVABLE]
+                         && encoder.getCount(SudokuBankEncoder.MULTIPLE) == planted[SudokuBankEncoder.MULTIPLE];
+
+                System.out.println(String.format("%7d  %-5s  %9.1f  %8d  %9d  %10d  %8d  %9d",
+                                                 threads, dedup ? "yes" : "no", count / (elapsed / 1e9),
+                                                 encoder.getCount(SudokuBankEncoder.ACCEPTED),
+                                                 encoder.getCount(SudokuBankEncoder.MALFORMED),
+                                                 encoder.getCount(SudokuBankEncoder.UNSOLVABLE),
+                                                 encoder.getCount(SudokuBankEncoder.MULTIPLE),
+                                                 encoder.getCount(SudokuBankEncoder.DUPLICATE)));
+            }
+        }
+
+        // a run that fails leaves the bank of the last run and no temporary file
+        long length = out.length();
+        boolean failed = false;
+        try
+        {
+            new SudokuBankEncoder("dlx", 1, 9, SudokuLevel.HARD_LEVEL, false).run(new File(text.getPath() + ".missing"), out);
+        }
+        catch (IOException e)
+        {
+            failed = true;
+        }
+        boolean kept = failed && out.length() == length && !new File(out.getPath() + ".tmp").exists()
+                       && new SudokuPuzzleBank(out).getCount() == Math.min(bases.length, count);
+        passed = passed && kept;
+
+        System.out.println("failed run " + (kept ? "keeps the last bank" : "changes the last bank"));
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    private static boolean benchmarkShard(int count)
+            throws Exception
+    {
+        int shards = 3;
+        String levels = "Easy,Hard";
+        File dir = Files.createTempDirectory("sudoku").toFile();
+        File other = Files.createTempDirectory("sudoku").toFile();
+        File out = new File(dir, "merged.bank");
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        Process[] processes = new Process[shards];
+        boolean passed = true;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < shards; i++)
+        {
+            processes[i] = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                              SudokuShardJob.class.getName(), "generate", "-t", "1",
+                                              "-i", String.valueOf(i),
+                                              "-r", (long)count * i / shards + ":" + (long)count * (i + 1) / shards,
+                                              "-l", levels, dir.getPath()).inheritIO().start();
+        }
+        for (Process process: processes)
+            passed = process.waitFor() == 0 && passed;
+        long generated = System.nanoTime() - start;
+
+        SudokuShardJob job = new SudokuShardJob(9, "dlx", 1);
+
+        start = System.nanoTime();
+        job.merge(dir, out);
+        long merged = System.nanoTime() - start;
+        long written = job.getWritten();
+        long duplicates = job.getDuplicates();
+
+        passed = passed && written + duplicates == count * 2L;
+
+        // the same range gives the same shard whatever the thread count
+        File again = new SudokuShardJob(9, "dlx", 2).generate(other, 1, count / shards, count * 2 / shards,
+            new SudokuLevel[] { SudokuLevel.HARD_LEVEL, SudokuLevel.EASY_LEVEL });
+        boolean reproducible = Arrays.equals(Files.readAllBytes(again.toPath()),
+                                             Files.readAllBytes(SudokuShardJob.getShardFile(dir, 1).toPath()));
+
+        // a copied shard only adds duplicates, a corrupt one stops the merge
+        File copy = SudokuShardJob.getShardFile(dir, shards);
+        Files.copy(SudokuShardJob.getShardFile(dir, 0).toPath(), copy.toPath());
+        job.merge(dir, out);
+        boolean deduplicated = job.getWritten() == written;
+
+        byte[] bytes = Files.readAllBytes(copy.toPath());
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(copy.toPath(), bytes);
+        boolean rejected = false;
+        try
+        {
+            job.merge(dir, out);
+        }
+        catch (IOException e)
+        {
+            rejected = true;
+        }
+
+        passed = passed && reproducible && deduplicated && rejected;
+
+        System.out.println(String.format("%d shards, %d puzzles of %s", shards, count * 2, levels));
+        System.out.println("generate s  puzzles/s  merge ms  merged  duplicates  reproducible  dedup  corrupt");
+        System.out.println(String.format("%10.2f  %9.1f  %8.1f  %6d  %10d  %-12s  %-5s  %s",
+                                         generated / 1e9, count * 2 / (generated / 1e9), merged / 1e6,
+                                         written, duplicates, reproducible ? "yes" : "no",
+                                         deduplicated ? "yes" : "no", rejected ? "rejected" : "merged"));
+
+        for (File file: dir.listFiles())
+            file.delete();
+        for (File file: other.listFiles())
+            file.delete();
+        dir.delete();
+        other.delete();
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    /**
+     * Times solve and countSolutions to 2 of the propagation and the
+     * parallel solver, both through Sudoku, on the same puzzles.
+     */
+    private static boolean benchmarkParallel(int count)
+            throws InterruptedException
+    {
+        SplittableRandom random = new SplittableRandom(count);
+        String[] names = { "9x9 17-clue", "16x16 Hard" };
+        SudokuBoard[][] problems = new SudokuBoard[names.length][count];
+        boolean passed = true;
+
+        // 17-clue puzzles, each transformed into count puzzles that keep its clues and its single solution
+        SudokuTransform transform = new SudokuTransform(9);
+        SudokuBoard base = new SudokuBoard(9);
+        for (int i = 0; i < count; i++)
+        {
+            SudokuCodec.parse(SEVENTEEN_CLUES[i % SEVENTEEN_CLUES.length], base);
+            problems[0][i] = new SudokuBoard(9);
+            transform.randomize(random);
+            transform.apply(base, problems[0][i]);
+        }
+
+        Sudoku generator = new Sudoku(16, Sudoku.createSolver(16));
+        generator.setBank(null);
+        for (int i = 0; i < count; i++)
+        {
+            generator.generate(SudokuLevel.HARD_LEVEL, i);
+            problems[1][i] = new SudokuBoard(16);
+            generator.getProblemBoard().copyInto(problems[1][i]);
+        }
+
+        System.out.println(String.format("parallelism %d", ForkJoinPool.commonPool().getParallelism()));
+        System.out.println("corpus        puzzles  solve ms  parallel ms  speedup  count ms  parallel ms  speedup  mismatches");
+
+        for (int r = 0; r < names.length; r++)
+        {
+            int width = problems[r][0].getWidth();
+            Sudoku sequential = new Sudoku(width, Sudoku.createSolver("propagation", width));
+            Sudoku parallel = new Sudoku(width, Sudoku.createSolver("parallel", width));
+            SudokuBoard answer = new SudokuBoard(width);
+            SudokuBoard parallelAnswer = new SudokuBoard(width);
+            long[] elapsed = new long[4];      // solve, parallel solve, count, parallel count
+            int mismatches = 0;
+
+            for (int pass = 0; pass < 2; pass++)    // the first pass warms up
+            {
+                Arrays.fill(elapsed, 0);
+                mismatches = 0;
+
+                for (SudokuBoard problem: problems[r])
+                {
+                    long start = System.nanoTime();
+                    boolean solved = sequential.solve(problem, answer);
+                    elapsed[0] += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    boolean parallelSolved = parallel.solve(problem, parallelAnswer);
+                    elapsed[1] += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    int solutions = sequential.countSolutions(problem, 2);
+                    elapsed[2] += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    int parallelSolutions = parallel.countSolutions(problem, 2);
+                    elapsed[3] += System.nanoTime() - start;
+
+                    // every puzzle has a single solution, so both solvers must find the same one
+                    if (!solved || !parallelSolved || !answer.equals(parallelAnswer) || !isAnswerOf(answer, problem)
+                        || solutions != 1 || parallelSolutions != solutions)
+                        mismatches++;
+                }
+            }
+
+            // the sequential nodes take every 9x9 puzzle, so check the split path on one shared instance
+            final SudokuParallelSolver shared = new SudokuParallelSolver(width);
+            final SudokuBoard[] corpus = problems[r];
+            final AtomicInteger sharedMismatches = new AtomicInteger();
+            Thread[] callers = new Thread[SHARED_CALLERS];
+
+            shared.setSequentialNodes(0);
+            for (int t = 0; t < callers.length; t++)
+            {
+                callers[t] = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        SudokuBoard sharedAnswer = new SudokuBoard(corpus[0].getWidth());
+
+                        for (SudokuBoard problem: corpus)
+                        {
+                            if (shared.countSolutions(problem, 2, sharedAnswer) != 1 || !isAnswerOf(sharedAnswer, problem))
+                                sharedMismatches.incrementAndGet();
+                        }
+                    }
+                });
+                callers[t].start();
+            }
+            for (Thread caller: callers)
+                caller.join();
+
+            mismatches += sharedMismatches.get();
+            passed = passed && mismatches == 0;
+
+            System.out.println(String.format("%-12s  %7d  %8.3f  %11.3f  %7.2f  %8.3f  %11.3f  %7.2f  %10d",
+                                             names[r], count, elapsed[0] / 1e6 / count, elapsed[1] / 1e6 / count,
+                                             (double)elapsed[0] / elapsed[1], elapsed[2] / 1e6 / count,
+                                             elapsed[3] / 1e6 / count, (double)elapsed[2] / elapsed[3], mismatches));
+        }
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    private static boolean benchmarkRate(int count)
+            throws IOException
+    {
+        SudokuLevel[] levels = { SudokuLevel.EASY_LEVEL, SudokuLevel.MEDIUM_LEVEL, SudokuLevel.HARD_LEVEL,
+                                 SudokuLevel.EXTREME_LEVEL };
+        SudokuBank extreme = makeExtremeBank(BANK_RECORDS / 50);
+        SudokuRater rater = new SudokuRater(9);
+        SudokuTransform transform = new SudokuTransform(9);
+        SudokuBoard transformed = new SudokuBoard(9);
+        SplittableRandom random = new SplittableRandom(count);
+        boolean passed = true;
+
+        System.out.println("level     band   puzzles  tries/puzzle  in band  ms/puzzle  us/rating  min   mean  max  failed");
+
+        for (SudokuLevel level: levels)
+        {
+            // a 17-given puzzle takes the backtracking solver about a second
+            int puzzles = SudokuLevel.EXTREME_LEVEL.equals(level) ? Math.max(count / 10, 1) : count;
+            Sudoku sudoku = new Sudoku(9, Sudoku.createSolver(9));
+            sudoku.setBank(null);
+            sudoku.setExtremeBank(extreme);
+            sudoku.generate(level, count);      // warm up and seed
+
+            long tries = 0;
+            int inBand = 0;
+            long ratings = 0;
+            int min = SudokuRater.MAX_RATING;
+            int max = 0;
+            int failed = 0;
+            long rated = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < puzzles; i++)
+            {
+                sudoku.generate(level);
+
+                int rating = sudoku.getRating();
+                tries += sudoku.getTries();
+                if (level.matchesRating(9, rating))
+                    inBand++;
+                ratings += rating;
+                min = Math.min(min, rating);
+                max = Math.max(max, rating);
+
+                transform.randomize(random);
+                transform.apply(sudoku.getProblemBoard(), transformed);
+
+                long rateStart = System.nanoTime();
+                int again = rater.rate(transformed);
+                rated += System.nanoTime() - rateStart;
+
+                if (again != rating
+                    || (!level.matchesRating(9, rating) && sudoku.getTries() < Sudoku.maxRatingTries))
+                    failed++;
+            }
+            long elapsed = System.nanoTime() - start - rated;
+
+            passed = passed && failed == 0;
+
+            System.out.println(String.format("%-8s  %2d-%-2d  %7d  %12.2f  %6.0f%%  %9.2f  %9.1f  %3d  %5.2f  %3d  %6d",
+                                             level.getName(), level.getMinRating(), level.getMaxRating(), puzzles,
+                                             (double)tries / puzzles, 100.0 * inBand / puzzles, elapsed / 1e6 / puzzles,
+                                             rated / 1e3 / puzzles, min, (double)ratings / puzzles, max, failed));
+        }
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    private static boolean benchmarkStep(int count)
+    {
+        SudokuLevel[] levels = { SudokuLevel.EASY_LEVEL, SudokuLevel.MEDIUM_LEVEL, SudokuLevel.HARD_LEVEL };
+        int[] largeWidths = { 16, 25 };
+        int largeCount = Math.max(count / 10, 1);
+        SplittableRandom random = new SplittableRandom(count);
+
+        // corpus: generated 9x9 puzzles per level, then half-empty large grids
+        int rows = levels.length + largeWidths.length;
+        String[] names = new String[rows];
+        SudokuBoard[][] problems = new SudokuBoard[rows][];
+        SudokuBoard[][] answers = new SudokuBoard[rows][];
+
+        Sudoku sudoku = new Sudoku(9, Sudoku.createSolver("dlx", 9));
+        sudoku.setBank(null);
+        for (int r = 0; r < levels.length; r++)
+        {
+            names[r] = "9x9 " + levels[r].getName();
+            problems[r] = new SudokuBoard[count];
+            answers[r] = new SudokuBoard[count];
+
+            for (int i = 0; i < count; i++)
+            {
+                sudoku.generate(levels[r], i);
+                problems[r][i] = new SudokuBoard(9);
+                answers[r][i] = new SudokuBoard(9);
+                sudoku.getProblemBoard().copyInto(problems[r][i]);
+                sudoku.getAnswerBoard().copyInto(answers[r][i]);
+            }
+        }
+
+        for (int w = 0; w < largeWidths.length; w++)
+        {
+            int width = largeWidths[w];
+            int r = levels.length + w;
+
+            names[r] = width + "x" + width + " half";
+            problems[r] = new SudokuBoard[largeCount];
+            answers[r] = new SudokuBoard[largeCount];
+
+            for (int i = 0; i < largeCount; i++)
+            {
+                answers[r][i] = new SudokuBoard(width);
+                problems[r][i] = new SudokuBoard(width);
+                makeHalfEmptyPuzzle(width, random, answers[r][i], problems[r][i]);
+            }
+        }
+
+        int[] techniques = new int[SudokuStep.TECHNIQUE.values().length];
+        boolean passed = true;
+
+        System.out.println("corpus        puzzles  solved  steps/puzzle  us/hint  max us/hint  wrong");
+
+        for (int r = 0; r < rows; r++)
+        {
+            int width = problems[r][0].getWidth();
+            SudokuStepSolver solver = new SudokuStepSolver(width);
+            SudokuStep step = new SudokuStep(width);
+            int solved = 0;
+            long steps = 0;
+            long hints = 0;
+            long elapsed = 0;
+            long longest = 0;
+            int wrong = 0;
+
+            for (int pass = 0; pass < 2; pass++)    // the first pass warms up
+            {
+                solved = 0;
+                steps = 0;
+                hints = 0;
+                elapsed = 0;
+                longest = 0;
+                wrong = 0;
+
+                for (int i = 0; i < problems[r].length; i++)
+                {
+                    SudokuBoard answer = answers[r][i];
+                    solver.load(problems[r][i]);
+
+                    while (true)
+                    {
+                        long start = System.nanoTime();
+                        boolean found = solver.findStep(step);
+                        long time = System.nanoTime() - start;
+
+                        hints++;
+                        elapsed += time;
+                        longest = Math.max(longest, time);
+                        if (!found)
+                            break;
+
+                        steps++;
+                        if (pass == 1)
+                            techniques[step.getTechnique().ordinal()]++;
+
+                        if (!isStepOf(step, answer))
+                        {
+                            wrong++;
+                            break;
+                        }
+                        solver.apply(step);
+                    }
+
+                    if (solver.isSolved())
+                        solved++;
+                }
+            }
+
+            passed = passed && wrong == 0;
+
+            System.out.println(String.format("%-12s  %7d  %5.1f%%  %12.1f  %7.2f  %11.1f  %5d",
+                                             names[r], problems[r].length, 100.0 * solved / problems[r].length,
+                                             (double)steps / problems[r].length, elapsed / 1e3 / hints,
+                                             longest / 1e3, wrong));
+        }
+
+        System.out.println();
+        for (SudokuStep.TECHNIQUE technique: SudokuStep.TECHNIQUE.values())
+            System.out.println(String.format("%-18s  %8d", technique.getName(), techniques[technique.ordinal()]));
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    /**
+     * Returns true if step places the value of answer or eliminates only
+     * values answer does not have.
+     */
+    private static boolean isStepOf(SudokuStep step, SudokuBoard answer)
+    {
+        if (step.getTechnique() == SudokuStep.TECHNIQUE.CONTRADICTION)
+            return false;
+
+        if (step.isPlacement())
+            return answer.get(step.getPlaceCell()) == step.getPlaceValue();
+
+        for (int i = 0; i < step.getEliminationCount(); i++)
+        {
+            if (answer.get(step.getEliminationCell(i)) == step.getEliminationValue(i))
+                return false;
+        }
+
+        return true;
+    }
+
+    private static boolean benchmarkInput(int count)
+    {
+        SplittableRandom random = new SplittableRandom(count);
+        boolean passed = true;
+
+        System.out.println("width  guesses  ns/guess  with scans  full scans ns  mismatches  solved events");
+
+        for (int width: WIDTHS)
+        {
+            SudokuBoard answer = new SudokuBoard(width);
+            SudokuBoard problem = new SudokuBoard(width);
+
+            makeHalfEmptyPuzzle(width, random, answer, problem);
+
+            final int[] solvedEvents = new int[1];
+            SudokuPanel panel = new SudokuPanel(width);
+            panel.addEventListener(new ISudokuPanelEventListener()
+            {
+                public void onFilledChanged(int filled)
+                {
+                }
+
+                public void onSolved()
+                {
+                    solvedEvents[0]++;
+                }
+            });
+            panel.setProblem(problem.toArray(), answer.toArray(), problem.countGivens());
+
+            SudokuPos pos = new SudokuPos();
+            int mismatches = 0;
+            long scanned = 0;
+            long elapsed = 0;
+            long scannedInPlay = 0;
+
+            for (int pass = 0; pass < 2; pass++)    // the first pass warms up
+            {
+                elapsed = 0;
+                scannedInPlay = 0;
+
+                for (int i = 0; i < count; i++)
+                {
+                    // mostly right, as in play, so the board is often good
+                    int cell = random.nextInt(width * width);
+                    int kind = random.nextInt(16);
+                    byte guess = (byte)(kind == 0 ? random.nextInt(width + 1) : kind < 5 ? 0 : answer.get(cell));
+                    pos.setPos(cell / width, cell % width);
+
+                    long start = System.nanoTime();
+                    panel.setGuess(pos, guess);
+                    long guessed = System.nanoTime();
+
+                    // the scans each guess ran before the counters, on the same board
+                    boolean good = isGoodByScan(panel, width);
+                    boolean solved = isSolvedByScan(panel, width);
+                    elapsed += guessed - start;
+                    scannedInPlay += System.nanoTime() - guessed;
+
+                    if (good != panel.isGoodSoFar() || solved != panel.isSolved())
+                        mismatches++;
+                    if (i % CONFLICT_CHECK_EVERY == 0 && !isConflictByScan(panel, width))
+                        mismatches++;
+                }
+
+                if (pass == 1)
+                {
+                    // type the answer into every cell, then the board is solved once
+                    solvedEvents[0] = 0;
+                    for (int cell = 0; cell < width * width; cell++)
+                    {
+                        pos.setPos(cell / width, cell % width);
+                        panel.setGuess(pos, answer.get(cell));
+                    }
+                    if (!panel.isSolved() || !isSolvedByScan(panel, width)
+                        || panel.getConflictCount() != 0 || !isConflictByScan(panel, width))
+                        mismatches++;
+
+                    // the scans on a solved board, where they read every cell
+                    long start = System.nanoTime();
+                    for (int i = 0; i < count; i++)
+                    {
+                        if (!isGoodByScan(panel, width) || !isSolvedByScan(panel, width))
+                            mismatches++;
+                    }
+                    scanned = System.nanoTime() - start;
+
+                    passed = passed && mismatches == 0 && solvedEvents[0] == 1;
+
+                    System.out.println(String.format("%5d  %7d  %8.1f  %10.1f  %13.1f  %10d  %13d",
+                                                     width, count, (double)elapsed / count,
+                                                     (double)(elapsed + scannedInPlay) / count,
+                                                     (double)scanned / count, mismatches, solvedEvents[0]));
+                }
+            }
+        }
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    private static boolean isGoodByScan(SudokuPanel panel, int width)
+    {
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (!panel.getCell(y, x).isGood())
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean benchmarkMarks(int count)
+    {
+        SplittableRandom random = new SplittableRandom(count);
+        boolean passed = true;
+
+        System.out.println("width  us/fill  guesses  ns/guess  marks removed  mismatches");
+
+        for (int width: WIDTHS)
+        {
+            SudokuBoard answer = new SudokuBoard(width);
+            SudokuBoard problem = new SudokuBoard(width);
+            int cells = width * width;
+
+            makeHalfEmptyPuzzle(width, random, answer, problem);
+
+            SudokuPanel panel = new SudokuPanel(width);
+            panel.setAutoCandidates(true);
+            panel.setProblem(problem.toArray(), answer.toArray(), problem.countGivens());
+
+            int mismatches = isCandidatesByScan(panel, width) ? 0 : 1;
+
+            for (int i = 0; i < count; i++)     // warm up
+                panel.fillCandidates();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++)
+                panel.fillCandidates();
+            long filled = System.nanoTime() - start;
+
+            int[] before = getMarksAndGuesses(panel, width);
+            SudokuPos pos = new SudokuPos();
+            long elapsed = 0;
+            long removed = 0;
+
+            for (int pass = 0; pass < 2; pass++)    // the first pass warms up and is undone
+            {
+                elapsed = 0;
+                removed = 0;
+
+                for (int i = 0; i < count; i++)
+                {
+                    int cell = random.nextInt(cells);
+                    int kind = random.nextInt(16);
+                    byte guess = (byte)(kind == 0 ? random.nextInt(width) + 1 : kind < 5 ? 0 : answer.get(cell));
+                    int marksBefore = countMarks(panel, width);
+                    pos.setPos(cell / width, cell % width);
+
+                    start = System.nanoTime();
+                    panel.setGuess(pos, guess);
+                    elapsed += System.nanoTime() - start;
+
+                    removed += Math.max(marksBefore - countMarks(panel, width), 0);
+
+                    // no peer of a guess keeps the guess as a mark
+                    SudokuCell c = panel.getCell(pos);
+                    if (!c.isPreset() && guess != 0)
+                    {
+                        for (int peer = 0; peer < cells; peer++)
+                        {
+                            if (peer != cell && isPeer(width, cell, peer)
+                                && (panel.getCell(peer / width, peer % width).getMarks() & (1 << (guess - 1))) != 0)
+                                mismatches++;
+                        }
+                    }
+                }
+
+                if (pass == 0)
+                {
+                    for (int i = 0; i < count; i++)
+                        panel.undo();
+                }
+            }
+
+            int[] after = getMarksAndGuesses(panel, width);
+
+            for (int i = 0; i < count; i++)
+                panel.undo();
+            if (!Arrays.equals(before, getMarksAndGuesses(panel, width)))
+                mismatches++;
+
+            for (int i = 0; i < count; i++)
+                panel.redo();
+            if (!Arrays.equals(after, getMarksAndGuesses(panel, width)))
+                mismatches++;
+
+            passed = passed && mismatches == 0;
+
+            System.out.println(String.format("%5d  %7.2f  %7d  %8.1f  %13d  %10d",
+                                             width, filled / 1e3 / count, count, (double)elapsed / count,
+                                             removed, mismatches));
+        }
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    private static boolean benchmarkUndo(int count)
+    {
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        SplittableRandom random = new SplittableRandom(count);
+        boolean passed = true;
+
+        System.out.println("width    moves  log bytes/move  alloc bytes/move  undone  jump us  one by one us  mismatches");
+
+        for (int width: WIDTHS)
+        {
+            SudokuBoard answer = new SudokuBoard(width);
+            SudokuBoard problem = new SudokuBoard(width);
+            int cells = width * width;
+
+            makeHalfEmptyPuzzle(width, random, answer, problem);
+
+            SudokuPanel panel = new SudokuPanel(width);
+            panel.setAutoCandidates(true);
+            panel.setProblem(problem.toArray(), answer.toArray(), problem.countGivens());
+            SudokuOpLog log = panel.getUndoLog();
+
+            SudokuPos pos = new SudokuPos();
+            int[] lastGood = getMarksAndGuesses(panel, width);
+            long allocated = 0;
+
+            for (int pass = 0; pass < 2; pass++)    // the first pass warms up and is undone
+            {
+                allocated = 0;
+
+                for (int i = 0; i < count; i++)
+                {
+                    int cell = random.nextInt(cells);
+                    int kind = random.nextInt(32);
+                    pos.setPos(cell / width, cell % width);
+
+                    long before = bean.getThreadAllocatedBytes(threadId);
+                    if (kind == 0)
+                        panel.setMark(pos, (byte)(random.nextInt(width) + 1));
+                    else
+                        panel.setGuess(pos, (byte)(kind < 3 ? random.nextInt(width + 1) : kind < 10 ? 0 : answer.get(cell)));
+                    allocated += bean.getThreadAllocatedBytes(threadId) - before;
+
+                    if (pass == 1 && !log.isEmpty() && log.size() == log.getLastCheckpoint())
+                        lastGood = getMarksAndGuesses(panel, width);
+                }
+
+                if (pass == 0)
+                {
+                    while (!log.isEmpty())
+                        panel.undo();
+                    panel.getRedoLog().clear();
+                }
+            }
+
+            int[] last = getMarksAndGuesses(panel, width);
+            int moves = log.size();
+            long memory = log.getMemory();
+            int mismatches = 0;
+
+            long jumped = 0;
+            long stepped = 0;
+            int undone = 0;
+
+            for (int round = 0; round < 3; round++)     // the first rounds warm up
+            {
+                long start = System.nanoTime();
+                panel.undoToLastGood();
+                jumped = System.nanoTime() - start;
+                undone = moves - log.size();
+
+                if (!Arrays.equals(lastGood, getMarksAndGuesses(panel, width)) || !panel.isGoodSoFar())
+                    mismatches++;
+
+                while (!panel.getRedoLog().isEmpty())
+                    panel.redo();
+                if (!Arrays.equals(last, getMarksAndGuesses(panel, width)))
+                    mismatches++;
+
+                // the old way: undo a move at a time until the last one is a good guess
+                start = System.nanoTime();
+                while (log.size() > log.getLastCheckpoint())
+                    panel.undo();
+                stepped = System.nanoTime() - start;
+
+                if (!Arrays.equals(lastGood, getMarksAndGuesses(panel, width)))
+                    mismatches++;
+
+                while (!panel.getRedoLog().isEmpty())
+                    panel.redo();
+            }
+
+            passed = passed && mismatches == 0;
+
+            System.out.println(String.format("%5d  %7d  %14.1f  %16.1f  %6d  %7.1f  %13.1f  %10d",
+                                             width, count, (double)memory / count, (double)allocated / count,
+                                             undone, jumped / 1e3, stepped / 1e3, mismatches));
+        }
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    private static boolean benchmarkSave(int count)
+            throws IOException
+    {
+        SplittableRandom random = new SplittableRandom(count);
+        boolean passed = true;
+
+        System.out.println("width    moves  save bytes  journal  append us/move  save us  resume ms  replayed  mismatches");
+
+        for (int width: WIDTHS)
+        {
+            SudokuBoard answer = new SudokuBoard(width);
+            SudokuBoard problem = new SudokuBoard(width);
+            int cells = width * width;
+
+            makeHalfEmptyPuzzle(width, random, answer, problem);
+
+            // the same moves are played with and without a save attached
+            int[] kinds = new int[count];
+            int[] moveCells = new int[count];
+            byte[] values = new byte[count];
+            for (int i = 0; i < count; i++)
+            {
+                int cell = random.nextInt(cells);
+                kinds[i] = random.nextInt(32);
+                moveCells[i] = cell;
+                values[i] = (byte)(kinds[i] < 5 ? random.nextInt(width) + 1
+                                   : kinds[i] < 10 ? 0 : kinds[i] < 14 ? random.nextInt(width + 1) : answer.get(cell));
+            }
+
+            File file = File.createTempFile("sudoku", ".save");
+            SudokuGameSave save = new SudokuGameSave(file);
+            file.deleteOnExit();
+            save.getJournalFile().deleteOnExit();
+
+            long appended = 0;
+            long saved = 0;
+            long resumed = 0;
+            int replayed = 0;
+            int mismatches = 0;
+
+            for (int round = 0; round < 3; round++)     // the first rounds warm up
+            {
+                SudokuPanel plain = new SudokuPanel(width);
+                SudokuPanel panel = new SudokuPanel(width);
+                plain.setProblem(problem.toArray(), answer.toArray(), problem.countGivens());
+                panel.setProblem(problem.toArray(), answer.toArray(), problem.countGivens());
+                save.start(panel, SudokuLevel.HARD_LEVEL, problem.countGivens(), false);
+
+                long start = System.nanoTime();
+                playMoves(plain, width, kinds, moveCells, values);
+                long elapsed = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                playMoves(panel, width, kinds, moveCells, values);
+                appended = System.nanoTime() - start - elapsed;
+                save.setUsedHint();
+
+                if (!Arrays.equals(getMarksAndGuesses(plain, width), getMarksAndGuesses(panel, width)))
+                    mismatches++;
+
+
+                // closed without a save, as after a crash: the journal is replayed
+                save.close();
+                replayed = save.getJournalCount();
+                SudokuPanel restored = new SudokuPanel(width);
+                SudokuGameSave reopened = new SudokuGameSave(file);
+                start = System.nanoTime();
+                reopened.resume(restored);
+                resumed = System.nanoTime() - start;
+                if (!isSameGame(panel, restored, width) || !reopened.isUsedHint()
+                    || reopened.getLevel() != SudokuLevel.HARD_LEVEL)
+                    mismatches++;
+
+                // a move after resuming is journaled, and a record cut short is dropped
+                SudokuPos pos = new SudokuPos();
+                for (int cell = 0; cell < cells; cell++)
+                {
+                    if (panel.getCell(cell / width, cell % width).getNumber() == 0)
+                    {
+                        pos.setPos(cell / width, cell % width);
+                        panel.setGuess(pos, answer.get(cell));
+                        restored.setGuess(pos, answer.get(cell));
+                        break;
+                    }
+                }
+                reopened.close();
+                OutputStream os = new FileOutputStream(save.getJournalFile(), true);
+                os.write(new byte[7]);
+                os.close();
+                restored = new SudokuPanel(width);
+                reopened = new SudokuGameSave(file);
+                reopened.resume(restored);
+                if (!isSameGame(panel, restored, width))
+                    mismatches++;
+
+                start = System.nanoTime();
+                reopened.save();
+                saved = System.nanoTime() - start;
+                reopened.close();
+
+                // a snapshot that fails its checksum is not resumed
+                byte[] data = Files.readAllBytes(file.toPath());
+                data[data.length - 1] ^= 1;
+                Files.write(file.toPath(), data);
+                try
+                {
+                    new SudokuGameSave(file).resume(new SudokuPanel(width));
+                    mismatches++;
+                }
+                catch (IOException e)
+                {
+                }
+                data[data.length - 1] ^= 1;
+                Files.write(file.toPath(), data);
+
+                // a journal record that cannot be replayed fails the resume, and reset clears what it set up
+                os = new FileOutputStream(save.getJournalFile(), true);
+                os.write(new byte[] { 0, 0, 0, 0, 0, 0, 0, 15, 0, 0, 0, 0, 0, 0, 0, 0 });
+                os.close();
+                restored = new SudokuPanel(width);
+                try
+                {
+                    new SudokuGameSave(file).resume(restored);
+                    mismatches++;
+                }
+                catch (IOException e)
+                {
+                    restored.reset();
+                    restored.setAutoCandidates(false);      // the dialog sets it back from its menu
+                    if (restored.isStarted() || !isSameGame(new SudokuPanel(width), restored, width))
+                        mismatches++;
+                }
+            }
+
+            passed = passed && mismatches == 0;
+
+            System.out.println(String.format("%5d  %7d  %10d  %7d  %14.2f  %7.1f  %9.2f  %8d  %10d",
+                                             width, count, file.length(), SudokuGameSave.MAX_JOURNAL,
+                                             appended / 1e3 / count, saved / 1e3, resumed / 1e6, replayed, mismatches));
+
+            save.delete();
+        }
+
+        passed = checkSavedHints() && passed;
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+
+        return passed;
+    }
+
+    /**
+     * Follows the hints through 9x9 Hard games, which need more than
+     * singles, and returns true if the candidates they eliminated come
+     * back when each game is resumed from its journal.
+     */
+    private static boolean checkSavedHints()
+            throws IOException
+    {
+        Sudoku sudoku = new Sudoku(9, Sudoku.createSolver(DIG_SOLVER, 9));
+        SudokuPos pos = new SudokuPos();
+        int eliminated = 0;
+        int mismatches = 0;
+
+        File file = File.createTempFile("sudoku", ".save");
+        SudokuGameSave save = new SudokuGameSave(file);
+        file.deleteOnExit();
+        save.getJournalFile().deleteOnExit();
+
+        sudoku.setBank(null);
+        for (int i = 0; i < HINT_GAMES; i++)
+        {
+            SudokuPanel panel = new SudokuPanel(9);
+            SudokuStep step;
+
+            sudoku.generate(SudokuLevel.HARD_LEVEL, i);
+            panel.setProblem(sudoku.getProblemBoard().toArray(), sudoku.getAnswerBoard().toArray(),
+                             sudoku.getProblemBoard().countGivens());
+            save.start(panel, SudokuLevel.HARD_LEVEL, sudoku.getProblemBoard().countGivens(), true);
+
+            while ((step = panel.findNextStep()) != null)
+            {
+                if (step.isPlacement())
+                {
+                    pos.setPos(step.getPlaceCell() / 9, step.getPlaceCell() % 9);
+                    panel.setGuess(pos, (byte)step.getPlaceValue());
+                }
+            }
+            eliminated += countStepEliminated(panel, 9);
+
+            // from the journal, then from the snapshot the resume compacted it into
+            save.close();
+            for (int j = 0; j < 2; j++)
+            {
+                SudokuPanel restored = new SudokuPanel(9);
+                SudokuGameSave reopened = new SudokuGameSave(file);
+                reopened.resume(restored);
+                reopened.close();
+                if (!isSameGame(panel, restored, 9))
+                    mismatches++;
+            }
+        }
+
+        save.delete();
+
+        System.out.println(String.format("hints of %d 9x9 Hard games eliminated %d candidates, %d resumes differ",
+                                         HINT_GAMES, eliminated, mismatches));
+
+        return mismatches == 0;
+    }
+
+    private static void playMoves(SudokuPanel panel, int width, int[] kinds, int[] cells, byte[] values)
+    {
+        SudokuPos pos = new SudokuPos();
+
+        for (int i = 0; i < kinds.length; i++)
+        {
+            pos.setPos(cells[i] / width, cells[i] % width);
+
+            if (kinds[i] == 0)
+                panel.undo();
+            else if (kinds[i] == 1)
+                panel.redo();
+            else if (kinds[i] == 2 && i % 8 == 0)
+                panel.undoToLastGood();
+            else if (kinds[i] == 3 && i % 16 == 0)
+                panel.setAutoCandidates(!panel.isAutoCandidates());
+            else if (kinds[i] < 5)
+                panel.setMark(pos, values[i]);
+            else
+                panel.setGuess(pos, values[i]);
+        }
+    }
+
+    /**
+     * Returns true if the guesses, marks, hint eliminations, mode and undo
+     * and redo logs of both panels are the same.
+     */
+    private static boolean isSameGame(SudokuPanel panel, SudokuPanel other, int width)
+    {
+        for (int cell = 0; cell < width * width; cell++)
+        {
+            if (panel.getStepEliminated(cell) != other.getStepEliminated(cell))
+                return false;
+        }
+
+        return Arrays.equals(getMarksAndGuesses(panel, width), getMarksAndGuesses(other, width))
+            && panel.isAutoCandidates() == other.isAutoCandidates()
+            && panel.getWrongCount() == other.getWrongCount() && panel.getEmptyCount() == other.getEmptyCount()
+            && isSameLog(panel.getUndoLog(), other.getUndoLog()) && isSameLog(panel.getRedoLog(), other.getRedoLog());
+    }
+
+    private static boolean isSameLog(SudokuOpLog log, SudokuOpLog other)
+    {
+        if (log.size() != other.size() || log.getCheckpointCount() != other.getCheckpointCount())
+            return false;
+
+        for (int i = 0; i < log.size(); i++)
+        {
+            if (log.get(i) != other.get(i))
+                return false;
+        }
+        for (int i = 0; i < log.getCheckpointCount(); i++)
+        {
+            if (log.getCheckpoint(i) != other.getCheckpoint(i))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Fills answer with a random solved grid of its width and problem with
+     * the answer, each cell emptied with a chance of one half.
+     */
+    private static void makeHalfEmptyPuzzle(int width, SplittableRandom random, SudokuBoard answer, SudokuBoard problem)
+    {
+        SudokuBoard grid = new SudokuBoard(width);
+        SudokuTransform transform = new SudokuTransform(width);
+
+        new SudokuPropagationSolver(width).solve(new SudokuBoard(width), grid);
+        transform.randomize(random);
+        transform.apply(grid, answer);
+        answer.copyInto(problem);
+        for (int cell = 0; cell < width * width; cell++)
+        {
+            if (random.nextBoolean())
+                problem.set(cell, 0);
+        }
+    }
+
+    /**
+     * Returns a bank in the format of the extreme bank, which is not
+     * shipped, of records random transforms of SEVENTEEN_CLUES.
+     */
+    private static SudokuBank makeExtremeBank(int records)
+            throws IOException
+    {
+        int size = Sudoku.extremeDataSize;
+        byte[] data = new byte[records * size];
+        File file = File.createTempFile("sudoku", ".dat");
+        file.deleteOnExit();
+
+        SplittableRandom random = new SplittableRandom(records);
+        SudokuTransform transform = new SudokuTransform(9);
+        SudokuBoard base = new SudokuBoard(9);
+        SudokuBoard problem = new SudokuBoard(9);
+        for (int i = 0; i < records; i++)
+        {
+            SudokuCodec.parse(SEVENTEEN_CLUES[i % SEVENTEEN_CLUES.length], base);
+            transform.randomize(random);
+            transform.apply(base, problem);
+            SudokuCodec.encodeGivens(problem, data, i * size, size);
+        }
+
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        try
+        {
+            os.write(data);
+        }
+        finally
+        {
+            os.close();
+        }
+
+        return new SudokuBank(file, size);
+    }
+
+    private static boolean isPeer(int width, int cell, int peer)
+    {
+        int groupWidth = (int)Math.sqrt(width);
+        int y = cell / width, x = cell % width;
+        int py = peer / width, px = peer % width;
+
+        return py == y || px == x || (py / groupWidth == y / groupWidth && px / groupWidth == x / groupWidth);
+    }
+
+    /**
+     * Returns true if every empty cell is marked with exactly the values
+     * no peer holds.
+     */
+    private static boolean isCandidatesByScan(SudokuPanel panel, int width)
+    {
+        int cells = width * width;
+
+        for (int cell = 0; cell < cells; cell++)
+        {
+            SudokuCell c = panel.getCell(cell / width, cell % width);
+            if (c.getNumber() != 0)
+                continue;
+
+            int candidates = (1 << width) - 1;
+            for (int peer = 0; peer < cells; peer++)
+            {
+                int number = panel.getCell(peer / width, peer % width).getNumber();
+                if (peer != cell && number != 0 && isPeer(width, cell, peer))
+                    candidates &= ~(1 << (number - 1));
+            }
+
+            if (c.getMarks() != candidates)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns how many candidates hints eliminated on panel.
+     */
+    private static int countStepEliminated(SudokuPanel panel, int width)
+    {
+        int count = 0;
+
+        for (int cell = 0; cell < width * width; cell++)
+            count += Integer.bitCount(panel.getStepEliminated(cell));
+
+        return count;
+    }
+
+    private static int[] getMarksAndGuesses(SudokuPanel panel, int width)
+    {
+        int[] state = new int[2 * width * width];
+
+        for (int cell = 0; cell < width * width; cell++)
+        {
+            SudokuCell c = panel.getCell(cell / width, cell % width);
+
+            state[2 * cell] = c.getMarks();
+            state[2 * cell + 1] = c.getGuess();
+        }
+
+        return state;
+    }
+
+    private static int countMarks(SudokuPanel panel, int width)
+    {
+        int marks = 0;
+
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+                marks += Integer.bitCount(panel.getCell(y, x).getMarks());
+        }
+
+        return marks;
+    }
+
+    /**
+     * Returns true if the conflict flag of every cell is what comparing
+     * it with every other cell of its row, column and group gives.
+     */
+    private static boolean isConflictByScan(SudokuPanel panel, int width)
+    {
+        int groupWidth = (int)Math.sqrt(width);
+
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int number = panel.getCell(y, x).getNumber();
+                boolean conflict = false;
+
+                for (int py = 0; py < width && !conflict; py++)
+                {
+                    for (int px = 0; px < width && !conflict; px++)
+                    {
+                        boolean peer = py == y || px == x
+                            || (py / groupWidth == y / groupWidth && px / groupWidth == x / groupWidth);
+
+                        conflict = peer && (py != y || px != x) && number != 0
+                            && panel.getCell(py, px).getNumber() == number;
+                    }
+                }
+
+                if (conflict != panel.isConflict(y, x))
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isSolvedByScan(SudokuPanel panel, int width)
+    {
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (!panel.getCell(y, x).isCorrect())
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads a record the way the extreme bank was read before it was mapped.
+     */
+    private static void readStreamed(File file, int index, byte[] buf)
+            throws IOException
+    {
+        InputStream is = new FileInputStream(file);
+
+        try
+        {
+            long skip = (long)index * buf.length;
+            while (skip > 0)
+                skip -= is.skip(skip);
+
+            for (int read = 0, n; read < buf.length; read += n)
+            {
+                n = is.read(buf, read, buf.length - read);
+                if (n < 0)
+                    throw new IOException("Invalid Sudoku Bank - record " + index + " is cut short");
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static int compare(byte[] records, int offset, byte[] buf)
+    {
+        for (int i = 0; i < buf.length; i++)
+        {
+            if (records[offset + i] != buf[i])
+                return 1;
+        }
+
+        return 0;
+    }
+
+    private static boolean isAnswerOf(SudokuBoard answer, SudokuBoard problem)
+    {
+        return new SudokuCandidates(answer.getWidth()).isAnswerOf(answer, problem);
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        String mode = args.length > 0 ? args[0] : "generate";
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        if ("generate".equals(mode))
+            benchmarkGenerate(count);
+        else if ("dig".equals(mode))
+            benchmarkDig(count);
+        else if ("mint".equals(mode))
+        {
+            if (!benchmarkMint(count))
+                System.exit(1);
+        }
+        else if ("canon".equals(mode))
+        {
+            if (!benchmarkCanonical(count))
+                System.exit(1);
+        }
+        else if ("seed".equals(mode))
+        {
+            if (!benchmarkSeed(count))
+                System.exit(1);
+        }
+        else if ("bank".equals(mode))
+        {
+            if (!benchmarkBank(count))
+                System.exit(1);
+        }
+        else if ("encode".equals(mode))
+        {
+            if (!benchmarkEncode(count))
+                System.exit(1);
+        }
+        else if ("shard".equals(mode))
+        {
+            if (!benchmarkShard(count))
+                System.exit(1);
+        }
+        else if ("parallel".equals(mode))
+        {
+            if (!benchmarkParallel(count))
+                System.exit(1);
+        }
+        else if ("rate".equals(mode))
+        {
+            if (!benchmarkRate(count))
+                System.exit(1);
+        }
+        else if ("step".equals(mode))
+        {
+            if (!benchmarkStep(count))
+                System.exit(1);
+        }
+        else if ("input".equals(mode))
+        {
+            if (!benchmarkInput(count))
+                System.exit(1);
+        }
+        else if ("marks".equals(mode))
+        {
+            if (!benchmarkMarks(count))
+                System.exit(1);
+        }
+        else if ("undo".equals(mode))
+        {
+            if (!benchmarkUndo(count))
+                System.exit(1);
+        }
+        else if ("save".equals(mode))
+        {
+            if (!benchmarkSave(count))
+                System.exit(1);
+        }
+        else if ("alloc".equals(mode))
+        {
+            if (!benchmarkAllocation(count))
+                System.exit(1);
+        }
+        else
+            System.out.println("Usage: SudokuBenchmark generate|alloc|dig|seed|mint|canon|bank|encode|shard|parallel|rate|step|input|marks|undo|save [count]");
+    }
+}
@@ -0,0 +1,129 @@
+package org.sm.game.sudoku;
+
+import java.util.Arrays;
+
+/**
+ * A grid of width x width values (0 for an empty cell) in a single flat
+ * array, row after row. Boards are meant to be allocated once and reused
+ * with reset and copyInto.
+ */
+public class SudokuBoard
+{
+    private int width;
+    private byte[] cells;
+
+    public SudokuBoard(int width)
+    {
+        this.width = width;
+        cells = new byte[width * width];
+    }
+
+    public SudokuBoard(byte[][] grid)
+    {
+        this(grid.length);
+        copyFrom(grid);
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getCellCount()
+    {
+        return cells.length;
+    }
+
+    /**
+     * Returns the backing array, indexed by y * width + x.
+     */
+    public byte[] getCells()
+    {
+        return cells;
+    }
+
+    public byte get(int y, int x)
+    {
+        return cells[y * width + x];
+    }
+
+    public byte get(int cell)
+    {
+        return cells[cell];
+    }
+
+    public void set(int y, int x, int value)
+    {
+        cells[y * width + x] = (byte)value;
+    }
+
+    public void set(int cell, int value)
+    {
+        cells[cell] = (byte)value;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < cells.length; i++)
+            cells[i] = 0;
+    }
+
+    public void copyInto(SudokuBoard board)
+    {
+        System.arraycopy(cells, 0, board.cells, 0, cells.length);
+    }
+
+    public void copyFrom(byte[][] grid)
+    {
+        for (int y = 0; y < width; y++)
+            System.arraycopy(grid[y], 0, cells, y * width, width);
+    }
+
+    public void copyTo(byte[][] grid)
+    {
+        for (int y = 0; y < width; y++)
+            System.arraycopy(cells, y * width, grid[y], 0, width);
+    }
+
+    public byte[][] toArray()
+    {
+        byte[][] grid = new byte[width][width];
+
+        copyTo(grid);
+
+        return grid;
+    }
+
+    public int countGivens()
+    {
+        int count = 0;
+
+        for (int i = 0; i < cells.length; i++)
+        {
+            if (cells[i] != 0)
+                count++;
+        }
+
+        return count;
+    }
+
+    public boolean equals(Object obj)
+    {
+        boolean equal;
+
+        if (obj instanceof SudokuBoard)
+        {
+            SudokuBoard board = (SudokuBoard)obj;
+            equal = width == board.width && Arrays.equals(cells, board.cells);
+        }
+        else
+            equal = super.equals(obj);
+
+        return equal;
+    }
+
+    public int hashCode()
+    {
+        return Arrays.hashCode(cells);
+    }
+}
@@ -0,0 +1,40 @@
+package org.sm.game.sudoku;
+
+/**
+ * Lets another thread stop a running solve. Solvers poll it every few
+ * thousand nodes, so cancelling costs nothing in the search loop.
+ */
+public class SudokuCancelToken
+{
+    private volatile boolean cancelled;
+    private SudokuCancelToken parent;
+
+    public SudokuCancelToken()
+    {
+        this(null);
+    }
+
+    /**
+     * The token also reports cancelled once parent is cancelled.
+     */
+    public SudokuCancelToken(SudokuCancelToken parent)
+    {
+        this.parent = parent;
+        cancelled = false;
+    }
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public void reset()
+    {
+        cancelled = false;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+}
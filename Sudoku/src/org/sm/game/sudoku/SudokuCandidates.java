@@ -0,0 +1,115 @@
+package org.sm.game.sudoku;
+
+/**
+ * Per-row, per-column and per-group bitmasks of the values already placed.
+ * Bit (value - 1) is set when the value is used, so the candidates of a cell
+ * are the cleared bits of row | column | group.
+ */
+public class SudokuCandidates
+{
+    private int width;
+    private int groupWidth;
+    private int allMask;
+    private int[] rows;
+    private int[] cols;
+    private int[] groups;
+
+    public SudokuCandidates(int width)
+    {
+        this.width = width;
+        groupWidth = (int)Math.sqrt(width);
+        allMask = (1 << width) - 1;
+        rows = new int[width];
+        cols = new int[width];
+        groups = new int[width];
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < width; i++)
+        {
+            rows[i] = 0;
+            cols[i] = 0;
+            groups[i] = 0;
+        }
+    }
+
+    public void load(SudokuBoard board)
+    {
+        reset();
+
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int value = board.get(y, x);
+                if (value != 0)
+                    place(y, x, value);
+            }
+        }
+    }
+
+    public void place(int y, int x, int value)
+    {
+        int bit = 1 << (value - 1);
+
+        rows[y] |= bit;
+        cols[x] |= bit;
+        groups[getGroupIndex(y, x)] |= bit;
+    }
+
+    public void remove(int y, int x, int value)
+    {
+        int bit = ~(1 << (value - 1));
+
+        rows[y] &= bit;
+        cols[x] &= bit;
+        groups[getGroupIndex(y, x)] &= bit;
+    }
+
+    public int getCandidates(int y, int x)
+    {
+        return allMask & ~(rows[y] | cols[x] | groups[getGroupIndex(y, x)]);
+    }
+
+    /**
+     * Returns the smallest candidate greater than value, or 0 if there is none.
+     */
+    public int nextCandidate(int y, int x, int value)
+    {
+        int free = getCandidates(y, x) & (-1 << value);
+
+        return free == 0 ? 0 : Integer.numberOfTrailingZeros(free) + 1;
+    }
+
+    /**
+     * Returns true if answer is a complete grid with no value twice in a
+     * row, column or group, and keeps the givens of problem. Overwrites the
+     * candidates.
+     */
+    public boolean isAnswerOf(SudokuBoard answer, SudokuBoard problem)
+    {
+        reset();
+
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int value = answer.get(y, x);
+                if (value < 1 || value > width || (getCandidates(y, x) & (1 << (value - 1))) == 0)
+                    return false;
+                if (problem.get(y, x) != 0 && problem.get(y, x) != value)
+                    return false;
+
+                place(y, x, value);
+            }
+        }
+
+        return true;
+    }
+
+    private int getGroupIndex(int y, int x)
+    {
+        return (y / groupWidth) * groupWidth + x / groupWidth;
+    }
+}
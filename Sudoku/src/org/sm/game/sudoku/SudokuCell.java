@@ -1,12 +1,9 @@
 package org.sm.game.sudoku;
 
-import java.util.ArrayList;
 import java.awt.*;
 
 public class SudokuCell
 {
-    private static final int MAX_MARK = 3;
-
     private static int cellDim = 20;
     private static Font markFont = null;
     private static Color fgProblemColor = null;
@@ -14,6 +11,8 @@ public class SudokuCell
     private static boolean showAnswer = false;
     private static Color fgAnswerColor = Color.red;
     private static boolean showHint = false;
+    private static Color stepColor = new Color(255, 236, 160);
+    private static Color conflictColor = new Color(255, 196, 196);
 
     private static Font menuFont = null;
     private static Color fgMenuColor = new Color(162, 162, 162);
@@ -23,9 +22,11 @@ public class SudokuCell
 
     private byte value;     // negative if it is given, positive if it is the answer
     private byte guess;
-    private ArrayList<Byte> marks;
+    private int marks;          // bit (value - 1) for each value marked
     private Color bgColor;
     private boolean selected;
+    private boolean inStep;
+    private boolean conflict;
     private boolean mouseOver;
     private int ptX;
     private int ptY;
@@ -36,7 +37,7 @@ public class SudokuCell
     {
         value = 0;
         guess = 0;
-        marks = null;
+        marks = 0;
         bgColor = null;
         selected = false;
         mouseOver = false;
@@ -47,7 +48,7 @@ public class SudokuCell
     {
         this.value = (byte)value;
         guess = 0;
-        marks = null;
+        marks = 0;
     }
 
     public boolean setGuess(byte guess)
@@ -58,7 +59,7 @@ public class SudokuCell
         {
             firstGuess = this.guess == 0;
             this.guess = guess;
-            marks = null;
+            marks = 0;
         }
         else
             firstGuess = false;
@@ -71,10 +72,26 @@ public class SudokuCell
         return guess;
     }
 
+    /**
+     * Returns the given or guessed value, 0 if the cell is empty.
+     */
+    public int getNumber()
+    {
+        return value < 0 ? -value : guess;
+    }
+
     public boolean isPreset()
     {
         return value < 0;
     }
+
+    /**
+     * Returns the value of the answer, given or not.
+     */
+    public int getAnswer()
+    {
+        return value < 0 ? -value : value;
+    }
     
     public boolean isCorrect()
     {
@@ -86,44 +103,46 @@ public class SudokuCell
         return value < 0 || guess == 0 || guess == value;
     }
 
+    /**
+     * Toggles the mark of a value. Returns false for a given cell.
+     */
     public boolean setMark(byte mark)
     {
         if (value < 0)
             return false;
 
-        if (marks == null)
-            marks = new ArrayList<Byte>();
+        marks ^= 1 << (mark - 1);
 
-        boolean suceeded = true;
+        return true;
+    }
 
-        if (marks.contains(mark))   // unmark (toggle)
-            marks.remove(Byte.valueOf(mark));
-        else if (marks.size() < MAX_MARK)
-        {
-            boolean done = false;
-            for (int i = 0; i < marks.size() && !done; i++)
-            {
-                if (marks.get(i) > mark)
-                {
-                    marks.add(i, mark);
-                    done = true;
-                }
-            }
+    /**
+     * Removes the mark of a value and returns true if it was there.
+     */
+    public boolean removeMark(int mark)
+    {
+        int bit = 1 << (mark - 1);
+        boolean marked = (marks & bit) != 0;
 
-            if (!done)
-                marks.add(mark);
-        }
-        else
-            suceeded = false;
+        marks &= ~bit;
 
-        return suceeded;
+        return marked;
     }
 
-    public Byte[] getMarks()
+    /**
+     * Returns bit (value - 1) for each value marked.
+     */
+    public int getMarks()
     {
-        return marks == null ? null : marks.toArray(new Byte[marks.size()]); 
+        return marks;
     }
-    
+
+    public void setMarks(int marks)
+    {
+        if (value > 0)
+            this.marks = marks;
+    }
+
     public void paintComponent(Graphics g)
     {
         Color oldColor = g.getColor();
@@ -131,9 +150,9 @@ public class SudokuCell
         g.setColor(Color.white);
         g.draw3DRect(ptX, ptY, cellDim-1, cellDim-1, !selected);
 
-        if (bgColor != null)
+        if (bgColor != null || inStep || conflict)
         {
-            g.setColor(bgColor);
+            g.setColor(inStep ? stepColor : conflict ? conflictColor : bgColor);
             g.fillRect(ptX + 2, ptY + 2, cellDim-4, cellDim-4);
         }
 
@@ -155,21 +174,23 @@ public class SudokuCell
             drawValue(g, value);
         }
 
-        if (marks != null && marks.size() > 0)
+        if (marks != 0 && guess == 0)
         {
             g.setColor(markColor);
             Font oldFont = g.getFont();
             g.setFont(markFont);
 
+            // each value has its place in a small grid, as in the menu
             FontMetrics fm = g.getFontMetrics();
-            int yoff = fm.getAscent() + 3;
             char[] buf = new char[1];
-            int xoff = 5;
-            for (byte m: marks)
+            int groupDim = cellDim / menuPerRow;
+            for (int m = marks, i; m != 0; m &= m - 1)
             {
-                buf[0] = (char)('0' + m);
+                i = Integer.numberOfTrailingZeros(m);
+                buf[0] = SudokuCodec.toChar(i + 1);
+                int xoff = (groupDim - fm.charWidth(buf[0])) / 2 + (i % menuPerRow) * groupDim;
+                int yoff = fm.getAscent() + (groupDim - fm.getHeight()) / 2 + (i / menuPerRow) * groupDim;
                 g.drawChars(buf, 0, 1, ptX + xoff, ptY + yoff);
-                xoff += 5 + fm.charWidth(buf[0]);
             }
 
             g.setFont(oldFont);
@@ -192,7 +213,7 @@ public class SudokuCell
                 else
                     g.setColor(fgMenuColor);
 
-                buf[0] = (char)('1' + i);
+                buf[0] = SudokuCodec.toChar(i + 1);
                 int xoff = (groupDim - fm.charWidth(buf[0])) / 2 + (i % menuPerRow) * groupDim;
                 g.drawChars(buf, 0, 1, ptX + xoff, ptY + yoff);
 
@@ -209,7 +230,7 @@ public class SudokuCell
     private void drawValue(Graphics g, int value)
     {
         char[] buf = new char[1];
-        buf[0] = (char)('0' + value);
+        buf[0] = SudokuCodec.toChar(value);
 
         FontMetrics fm = g.getFontMetrics();
         int yoff = fm.getAscent() + (cellDim - fm.getHeight()) / 2;
@@ -258,6 +279,28 @@ public class SudokuCell
         this.selected = selected;
     }
 
+    /**
+     * Highlights the cell as part of the step shown as a hint.
+     */
+    public void setInStep(boolean inStep)
+    {
+        this.inStep = inStep;
+    }
+
+    public boolean isConflict()
+    {
+        return conflict;
+    }
+
+    /**
+     * Marks the cell as holding a value another cell of its row, column or
+     * group holds too.
+     */
+    public void setConflict(boolean conflict)
+    {
+        this.conflict = conflict;
+    }
+
     public void mouseExited()
     {
         mouseOver = false;
@@ -309,6 +352,12 @@ public class SudokuCell
         SudokuCell.menuFont = menuFont;
     }
 
+    public static void setMaxMenu(int maxMenu)
+    {
+        SudokuCell.maxMenu = maxMenu;
+        menuPerRow = (int)Math.sqrt(maxMenu);
+    }
+
     public static void setShowAnswer(boolean showAnswer)
     {
         SudokuCell.showAnswer = showAnswer;
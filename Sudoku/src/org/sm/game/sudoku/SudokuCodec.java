@@ -0,0 +1,263 @@
+package org.sm.game.sudoku;
+
+/**
+ * Text and binary forms of a Sudoku grid of any supported width.
+ *
+ * In text a value is '1'-'9' and then 'A', 'B', ... for 10 and up, and an
+ * empty cell is '0' or '.'. In binary the givens are packed as (y, x, value)
+ * fields of getFieldBits(width) bits each, most significant bit first, so a
+ * 9x9 grid uses the same 4-bit nibbles as the original extreme bank. A
+ * solved record packs the whole answer instead, each value less 1 in
+ * getSolutionBits(width) bits, so 4 bits up to 16x16, followed by one bit
+ * per cell that is set for a given.
+ */
+public class SudokuCodec
+{
+    public static int getFieldBits(int width)
+    {
+        return 32 - Integer.numberOfLeadingZeros(width);
+    }
+
+    public static int getEncodedSize(int width, int givens)
+    {
+        return (givens * 3 * getFieldBits(width) + 7) / 8;
+    }
+
+    public static int getSolutionBits(int width)
+    {
+        return 32 - Integer.numberOfLeadingZeros(width - 1);
+    }
+
+    public static int getSolvedSize(int width)
+    {
+        return (width * width * (getSolutionBits(width) + 1) + 7) / 8;
+    }
+
+    public static char toChar(int value)
+    {
+        if (value <= 0)
+            return '0';
+
+        return value < 10 ? (char)('0' + value) : (char)('A' + value - 10);
+    }
+
+    /**
+     * Returns the value of a character, 0 for an empty cell or -1 if it is
+     * not a value at all.
+     */
+    public static int fromChar(char c)
+    {
+        int value;
+
+        if (c == '.' || c == '0')
+            value = 0;
+        else if ('1' <= c && c <= '9')
+            value = c - '0';
+        else if ('A' <= c && c <= 'Z')
+            value = c - 'A' + 10;
+        else if ('a' <= c && c <= 'z')
+            value = c - 'a' + 10;
+        else
+            value = -1;
+
+        return value;
+    }
+
+    /**
+     * Parses the first cell count characters of line into board.
+     * Returns false if the line is too short or has an invalid character.
+     */
+    public static boolean parse(CharSequence line, SudokuBoard board)
+    {
+        int width = board.getWidth();
+        int cells = board.getCellCount();
+
+        if (line.length() < cells)
+            return false;
+
+        for (int i = 0; i < cells; i++)
+        {
+            int value = fromChar(line.charAt(i));
+            if (value < 0 || value > width)
+                return false;
+
+            board.set(i, value);
+        }
+
+        return true;
+    }
+
+    public static String format(SudokuBoard board)
+    {
+        int cells = board.getCellCount();
+        StringBuilder sb = new StringBuilder(cells);
+
+        for (int i = 0; i < cells; i++)
+            sb.append(toChar(board.get(i)));
+
+        return sb.toString();
+    }
+
+    /**
+     * Packs the givens of board into a record of size bytes, zero padded.
+     * Returns the number of givens.
+     */
+    public static int encodeGivens(SudokuBoard board, byte[] data, int offset, int size)
+    {
+        int width = board.getWidth();
+        int bits = getFieldBits(width);
+        int bitPos = offset * 8;
+        int givens = 0;
+
+        for (int i = offset; i < offset + size; i++)
+            data[i] = 0;
+
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int value = board.get(y, x);
+                if (value != 0)
+                {
+                    if (bitPos + 3 * bits > (offset + size) * 8)
+                        throw new RuntimeException("Too many givens for a record of " + size + " bytes");
+
+                    bitPos = writeBits(data, bitPos, y, bits);
+                    bitPos = writeBits(data, bitPos, x, bits);
+                    bitPos = writeBits(data, bitPos, value, bits);
+                    givens++;
+                }
+            }
+        }
+
+        return givens;
+    }
+
+    /**
+     * Unpacks a record written by encodeGivens into board.
+     * Returns the number of givens.
+     */
+    public static int decodeGivens(byte[] data, int offset, int size, SudokuBoard board)
+    {
+        int width = board.getWidth();
+        int bits = getFieldBits(width);
+        int bitPos = offset * 8;
+        int end = (offset + size) * 8;
+        int givens = 0;
+
+        board.reset();
+
+        while (bitPos + 3 * bits <= end)
+        {
+            int y = readBits(data, bitPos, bits);
+            int x = readBits(data, bitPos + bits, bits);
+            int value = readBits(data, bitPos + 2 * bits, bits);
+            bitPos += 3 * bits;
+
+            if (value == 0)
+                break;      // padding
+
+            if (y >= width || x >= width || value > width)
+                throw new RuntimeException("Invalid Sudoku record");
+
+            board.set(y, x, value);
+            givens++;
+        }
+
+        return givens;
+    }
+
+    /**
+     * Packs problem and its answer into a record of getSolvedSize bytes.
+     * Returns the number of givens.
+     */
+    public static int encodeSolved(SudokuBoard problem, SudokuBoard answer, byte[] data, int offset)
+    {
+        int width = answer.getWidth();
+        int cells = answer.getCellCount();
+        int bits = getSolutionBits(width);
+        int bitPos = offset * 8;
+        int givens = 0;
+
+        for (int i = offset; i < offset + getSolvedSize(width); i++)
+            data[i] = 0;
+
+        for (int i = 0; i < cells; i++)
+        {
+            int value = answer.get(i);
+            if (value < 1 || value > width)
+                throw new RuntimeException("Invalid Sudoku answer - cell " + i + " is " + value);
+
+            bitPos = writeBits(data, bitPos, value - 1, bits);
+        }
+
+        for (int i = 0; i < cells; i++, bitPos++)
+        {
+            int value = problem.get(i);
+            if (value != 0)
+            {
+                if (value != answer.get(i))
+                    throw new RuntimeException("Invalid Sudoku answer - cell " + i + " differs from the given");
+
+                writeBits(data, bitPos, 1, 1);
+                givens++;
+            }
+        }
+
+        return givens;
+    }
+
+    /**
+     * Unpacks a record written by encodeSolved into problem and answer.
+     * Returns the number of givens.
+     */
+    public static int decodeSolved(byte[] data, int offset, SudokuBoard problem, SudokuBoard answer)
+    {
+        int width = answer.getWidth();
+        int cells = answer.getCellCount();
+        int bits = getSolutionBits(width);
+        int bitPos = offset * 8;
+        int maskPos = bitPos + cells * bits;
+        int givens = 0;
+
+        for (int i = 0; i < cells; i++, bitPos += bits, maskPos++)
+        {
+            int value = readBits(data, bitPos, bits) + 1;
+            if (value > width)
+                throw new RuntimeException("Invalid Sudoku record");
+
+            answer.set(i, value);
+
+            if (readBits(data, maskPos, 1) != 0)
+            {
+                problem.set(i, value);
+                givens++;
+            }
+            else
+                problem.set(i, 0);
+        }
+
+        return givens;
+    }
+
+    private static int writeBits(byte[] data, int bitPos, int value, int bits)
+    {
+        for (int b = bits - 1; b >= 0; b--, bitPos++)
+        {
+            if (((value >> b) & 1) != 0)
+                data[bitPos >> 3] |= 0x80 >> (bitPos & 7);
+        }
+
+        return bitPos;
+    }
+
+    private static int readBits(byte[] data, int bitPos, int bits)
+    {
+        int value = 0;
+
+        for (int b = 0; b < bits; b++, bitPos++)
+            value = (value << 1) | ((data[bitPos >> 3] >> (7 - (bitPos & 7))) & 1);
+
+        return value;
+    }
+}
@@ -0,0 +1,283 @@
+package org.sm.game.sudoku;
+
+/**
+ * Dancing Links (Knuth's Algorithm X) on the exact cover matrix of Sudoku.
+ *
+ * Columns are the cell, row-value, column-value and group-value constraints,
+ * and every candidate (cell, value) is a matrix row of 4 nodes. The links are
+ * built once and restored from a pristine copy before each solve, so the
+ * node arrays are reused between solves.
+ */
+public class SudokuDLXSolver implements SudokuSolver
+{
+    private static final int ROOT = 0;
+    private static final int CANCEL_POLL_NODES = 4096;
+
+    private int _width;
+    private int _cells;
+    private int _firstNode;
+
+    private int[] _left;
+    private int[] _right;
+    private int[] _up;
+    private int[] _down;
+    private int[] _column;
+    private int[] _size;
+
+    private int[] _initLeft;
+    private int[] _initRight;
+    private int[] _initUp;
+    private int[] _initDown;
+    private int[] _initSize;
+
+    private int[] _selected;
+    private byte[] _solution;
+    private int _limit;
+    private int _found;
+    private long _nodes;
+    private long _nodeLimit;
+    private SudokuCancelToken _cancelToken;
+    private boolean _aborted;
+
+    public SudokuDLXSolver(int width)
+    {
+        int groupWidth = (int)Math.sqrt(width);
+        int columns = 4 * width * width;
+        int rows = width * width * width;
+
+        _width = width;
+        _cells = width * width;
+        _firstNode = columns + 1;
+
+        int nodes = _firstNode + rows * 4;
+        _left = new int[nodes];
+        _right = new int[nodes];
+        _up = new int[nodes];
+        _down = new int[nodes];
+        _column = new int[nodes];
+        _size = new int[columns + 1];
+
+        for (int c = 0; c <= columns; c++)
+        {
+            _left[c] = c == 0 ? columns : c - 1;
+            _right[c] = c == columns ? 0 : c + 1;
+            _up[c] = c;
+            _down[c] = c;
+            _column[c] = c;
+        }
+
+        for (int r = 0; r < rows; r++)
+        {
+            int cell = r / width;
+            int value = r % width;
+            int y = cell / width;
+            int x = cell % width;
+            int group = (y / groupWidth) * groupWidth + x / groupWidth;
+            int node = _firstNode + r * 4;
+
+            addNode(node, 1 + cell);
+            addNode(node + 1, 1 + _cells + y * width + value);
+            addNode(node + 2, 1 + 2 * _cells + x * width + value);
+            addNode(node + 3, 1 + 3 * _cells + group * width + value);
+
+            for (int i = 0; i < 4; i++)
+            {
+                _left[node + i] = node + (i + 3) % 4;
+                _right[node + i] = node + (i + 1) % 4;
+            }
+        }
+
+        _initLeft = _left.clone();
+        _initRight = _right.clone();
+        _initUp = _up.clone();
+        _initDown = _down.clone();
+        _initSize = _size.clone();
+
+        _selected = new int[_cells];
+        _solution = new byte[_cells];
+        _nodeLimit = Long.MAX_VALUE;
+    }
+
+    public long getNodeCount()
+    {
+        return _nodes;
+    }
+
+    public void setNodeLimit(long nodeLimit)
+    {
+        _nodeLimit = nodeLimit;
+    }
+
+    public void setCancelToken(SudokuCancelToken cancelToken)
+    {
+        _cancelToken = cancelToken;
+    }
+
+    public boolean solve(SudokuBoard problem, SudokuBoard answer)
+    {
+        boolean solved = search(problem, 1) > 0;
+
+        if (solved)
+            System.arraycopy(_solution, 0, answer.getCells(), 0, _cells);
+
+        return solved;
+    }
+
+    public int countSolutions(SudokuBoard problem, int limit)
+    {
+        return search(problem, limit);
+    }
+
+    public int countSolutions(SudokuBoard problem, int limit, SudokuBoard answer)
+    {
+        int count = search(problem, limit);
+
+        if (count > 0)
+            System.arraycopy(_solution, 0, answer.getCells(), 0, _cells);
+
+        return count;
+    }
+
+    private void addNode(int node, int column)
+    {
+        _column[node] = column;
+        _up[node] = _up[column];
+        _down[node] = column;
+        _down[_up[column]] = node;
+        _up[column] = node;
+        _size[column]++;
+    }
+
+    private void reset()
+    {
+        System.arraycopy(_initLeft, 0, _left, 0, _left.length);
+        System.arraycopy(_initRight, 0, _right, 0, _right.length);
+        System.arraycopy(_initUp, 0, _up, 0, _up.length);
+        System.arraycopy(_initDown, 0, _down, 0, _down.length);
+        System.arraycopy(_initSize, 0, _size, 0, _size.length);
+    }
+
+    private int search(SudokuBoard problem, int limit)
+    {
+        reset();
+        _limit = limit;
+        _found = 0;
+        _nodes = 0;
+        _aborted = false;
+
+        byte[] cells = problem.getCells();
+        int depth = 0;
+        for (int cell = 0; cell < _cells; cell++)
+        {
+            int value = cells[cell];
+            if (value != 0)
+            {
+                int node = _firstNode + (cell * _width + value - 1) * 4;
+
+                for (int i = 0; i < 4; i++)
+                {
+                    int c = _column[node + i];
+                    if (_right[_left[c]] != c)
+                        return 0;       // the given conflicts with an earlier one
+                }
+
+                for (int i = 0; i < 4; i++)
+                    cover(_column[node + i]);
+
+                _selected[depth++] = node;
+            }
+        }
+
+        search(depth);
+
+        return _aborted ? UNKNOWN : _found;
+    }
+
+    private void search(int depth)
+    {
+        if (_right[ROOT] == ROOT)
+        {
+            if (_found++ == 0)
+            {
+                for (int i = 0; i < depth; i++)
+                {
+                    int r = (_selected[i] - _firstNode) / 4;
+                    _solution[r / _width] = (byte)(r % _width + 1);
+                }
+            }
+            return;
+        }
+
+        int best = _right[ROOT];
+        for (int c = _right[best]; c != ROOT; c = _right[c])
+        {
+            if (_size[c] < _size[best])
+                best = c;
+        }
+
+        if (_size[best] == 0)
+            return;
+
+        cover(best);
+
+        for (int r = _down[best]; r != best && _found < _limit && spend(); r = _down[r])
+        {
+            _selected[depth] = r;
+
+            for (int j = _right[r]; j != r; j = _right[j])
+                cover(_column[j]);
+
+            search(depth + 1);
+
+            for (int j = _left[r]; j != r; j = _left[j])
+                uncover(_column[j]);
+        }
+
+        uncover(best);
+    }
+
+    /**
+     * Counts a node and returns false once the node limit is exceeded or the
+     * cancel token is set. The token is polled every CANCEL_POLL_NODES nodes.
+     */
+    private boolean spend()
+    {
+        if (++_nodes > _nodeLimit
+            || ((_nodes & (CANCEL_POLL_NODES - 1)) == 0 && _cancelToken != null && _cancelToken.isCancelled()))
+            _aborted = true;
+
+        return !_aborted;
+    }
+
+    private void cover(int c)
+    {
+        _right[_left[c]] = _right[c];
+        _left[_right[c]] = _left[c];
+
+        for (int i = _down[c]; i != c; i = _down[i])
+        {
+            for (int j = _right[i]; j != i; j = _right[j])
+            {
+                _down[_up[j]] = _down[j];
+                _up[_down[j]] = _up[j];
+                _size[_column[j]]--;
+            }
+        }
+    }
+
+    private void uncover(int c)
+    {
+        for (int i = _up[c]; i != c; i = _up[i])
+        {
+            for (int j = _left[i]; j != i; j = _left[j])
+            {
+                _size[_column[j]]++;
+                _down[_up[j]] = j;
+                _up[_down[j]] = j;
+            }
+        }
+
+        _right[_left[c]] = c;
+        _left[_right[c]] = c;
+    }
+}
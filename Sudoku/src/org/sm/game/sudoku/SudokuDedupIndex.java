@@ -0,0 +1,147 @@
+package org.sm.game.sudoku;
+
+/**
+ * A set of puzzles up to symmetry. Each puzzle is canonicalized and only a
+ * 128-bit fingerprint of its minlex form is kept, in an open addressing
+ * table of longs, so a few million puzzles take tens of megabytes. Two
+ * different forms share a fingerprint with a chance of about n^2 / 2^129,
+ * which is negligible for any bank we build.
+ *
+ * Not thread safe. Several threads can fingerprint puzzles with their own
+ * canonicalizers and feed the fingerprints to one index from one thread.
+ */
+public class SudokuDedupIndex
+{
+    private static final int INITIAL_CAPACITY = 1024;     // a power of 2
+
+    private SudokuCanonicalizer _canonicalizer;
+    private SudokuBoard _canonical;
+    private long[] _table;      // pairs of longs, both 0 for an empty slot
+    private int _size;
+    private long[] _fingerprint;
+
+    public SudokuDedupIndex(int width)
+    {
+        _canonicalizer = new SudokuCanonicalizer(width);
+        _canonical = new SudokuBoard(width);
+        _table = new long[INITIAL_CAPACITY * 2];
+        _fingerprint = new long[2];
+    }
+
+    public int size()
+    {
+        return _size;
+    }
+
+    /**
+     * Adds the puzzle and returns true, or returns false if it or one of its
+     * transforms is already in the index.
+     */
+    public boolean add(byte[][] grid)
+    {
+        return add(new SudokuBoard(grid));
+    }
+
+    public boolean add(SudokuBoard puzzle)
+    {
+        fingerprint(_canonicalizer, puzzle, _canonical, _fingerprint);
+
+        return add(_fingerprint[0], _fingerprint[1]);
+    }
+
+    /**
+     * Adds a fingerprint made by fingerprint and returns true, or returns
+     * false if it is already in the index.
+     */
+    public boolean add(long high, long low)
+    {
+        int slot = find(high, low);
+        boolean added = _table[slot] == 0 && _table[slot + 1] == 0;
+
+        if (added)
+        {
+            _table[slot] = high;
+            _table[slot + 1] = low;
+
+            if (++_size > _table.length / 4)    // keep the table at most half full
+                grow();
+        }
+
+        return added;
+    }
+
+    public boolean contains(SudokuBoard puzzle)
+    {
+        fingerprint(_canonicalizer, puzzle, _canonical, _fingerprint);
+
+        int slot = find(_fingerprint[0], _fingerprint[1]);
+
+        return _table[slot] != 0 || _table[slot + 1] != 0;
+    }
+
+    /**
+     * Writes the fingerprint of puzzle into fingerprint[0] and [1], using
+     * canonicalizer and canonical, a board of the same width, as buffers.
+     */
+    public static void fingerprint(SudokuCanonicalizer canonicalizer, SudokuBoard puzzle,
+                                   SudokuBoard canonical, long[] fingerprint)
+    {
+        canonicalizer.canonicalize(puzzle, canonical);
+
+        fingerprint[0] = hash(canonical, 0x243F6A8885A308D3L);
+        fingerprint[1] = hash(canonical, 0x13198A2E03707344L);
+        if (fingerprint[0] == 0 && fingerprint[1] == 0)
+            fingerprint[1] = 1;
+    }
+
+    /**
+     * Returns the index in the table of the fingerprint, or of the empty
+     * slot where it belongs.
+     */
+    private int find(long high, long low)
+    {
+        int mask = _table.length / 2 - 1;
+        int slot = (int)high & mask;
+
+        while ((_table[slot * 2] != 0 || _table[slot * 2 + 1] != 0)
+               && (_table[slot * 2] != high || _table[slot * 2 + 1] != low))
+            slot = (slot + 1) & mask;
+
+        return slot * 2;
+    }
+
+    private void grow()
+    {
+        long[] old = _table;
+
+        _table = new long[old.length * 2];
+        for (int i = 0; i < old.length; i += 2)
+        {
+            if (old[i] != 0 || old[i + 1] != 0)
+            {
+                int slot = find(old[i], old[i + 1]);
+                _table[slot] = old[i];
+                _table[slot + 1] = old[i + 1];
+            }
+        }
+    }
+
+    private static long hash(SudokuBoard board, long seed)
+    {
+        long h = seed;
+        byte[] cells = board.getCells();
+
+        for (int i = 0; i < cells.length; i++)
+            h = mix(h ^ cells[i]) + i;
+
+        return mix(h);
+    }
+
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,582 @@
+package org.sm.game.sudoku;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A game in progress, kept on disk as a snapshot and a journal of the
+ * moves made since, so a move is saved by appending 16 bytes and a game
+ * is resumed without generating or solving anything.
+ *
+ * Numbers are big-endian. The snapshot starts with a header
+ *
+ *     0  4  magic "SDKS"
+ *     4  2  version
+ *     6  2  width
+ *     8  8  id, which its journal starts with
+ *    16  8  elapsed ms
+ *    24  4  initial count
+ *    28  4  flags, 1 if a hint was used, 2 in auto-candidates mode
+ *    32 16  level name in ASCII padded with 0
+ *    48  4  body size
+ *    52  4  CRC32 of the body
+ *
+ * followed by the body: SudokuCodec.encodeSolved of the problem and its
+ * answer, a byte per cell for the guesses, an int per cell for the marks,
+ * an int per cell for the candidates hints eliminated, and the undo and
+ * redo logs as SudokuOpLog.write puts them. Version 1 had no hint
+ * eliminations and is not resumed.
+ *
+ * The journal is the magic "SDKJ", the version, 2 bytes of 0 and the id of
+ * its snapshot, followed by a record per move: the move and the elapsed
+ * ms, a long each. A hint journals a record per candidate it eliminated. save writes a new snapshot under a new id to a
+ * temporary file, renames it over the old one and empties the journal, so
+ * a journal left from an older snapshot is never replayed and a record cut
+ * short by a crash is dropped.
+ */
+public class SudokuGameSave
+{
+    public static final int MAGIC = 0x53444B53;             // "SDKS"
+    public static final int JOURNAL_MAGIC = 0x53444B4A;     // "SDKJ"
+    public static final int VERSION = 2;
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    public static final int MOVE_GUESS = 1;
+    public static final int MOVE_MARK = 2;
+    public static final int MOVE_UNDO = 3;
+    public static final int MOVE_UNDO_TO_LAST_GOOD = 4;
+    public static final int MOVE_REDO = 5;
+    public static final int MOVE_AUTO_CANDIDATES = 6;
+    public static final int MOVE_HINT = 7;
+    public static final int MOVE_ELIMINATE = 8;
+
+    /** Records the journal may hold before a move compacts it. */
+    public static final int MAX_JOURNAL = 4096;
+
+    private static final String PROP_SAVE = "sudoku.save";
+    private static final String DEFAULT_SAVE = "gsSudoku.save";
+
+    private static final int HEADER_SIZE = 56;
+    private static final int NAME_SIZE = 16;
+    private static final int JOURNAL_HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 16;
+
+    private static final int FLAG_HINT = 1;
+    private static final int FLAG_AUTO_CANDIDATES = 2;
+
+    private File _file;
+    private File _journalFile;
+    private FileChannel _journal;
+    private ByteBuffer _record;
+    private int _journalCount;
+
+    private SudokuPanel _panel;
+    private long _id;
+    private SudokuLevel _level;
+    private int _initialCount;
+    private boolean _usedHint;
+    private long _elapsedBase;      // elapsed ms when the clock was last set
+    private long _clockStart;       // System.nanoTime() when the clock was last set
+
+    public SudokuGameSave(File file)
+    {
+        _file = file;
+        _journalFile = new File(file.getPath() + JOURNAL_SUFFIX);
+        _record = ByteBuffer.allocateDirect(RECORD_SIZE);
+        _id = System.nanoTime();
+    }
+
+    /**
+     * Returns the file named by the sudoku.save property, gsSudoku.save if
+     * it is not set.
+     */
+    public static File getDefaultFile()
+    {
+        String path = System.getProperty(PROP_SAVE);
+
+        return new File(path == null || path.length() == 0 ? DEFAULT_SAVE : path);
+    }
+
+    public File getFile()
+    {
+        return _file;
+    }
+
+    public File getJournalFile()
+    {
+        return _journalFile;
+    }
+
+    public boolean exists()
+    {
+        return _file.isFile();
+    }
+
+    public SudokuLevel getLevel()
+    {
+        return _level;
+    }
+
+    public int getInitialCount()
+    {
+        return _initialCount;
+    }
+
+    public boolean isUsedHint()
+    {
+        return _usedHint;
+    }
+
+    /**
+     * Returns the ms played, counting from the start of the game.
+     */
+    public long getElapsed()
+    {
+        return _elapsedBase + (System.nanoTime() - _clockStart) / 1000000;
+    }
+
+    /**
+     * Returns the records in the journal since the last snapshot.
+     */
+    public int getJournalCount()
+    {
+        return _journalCount;
+    }
+
+    /**
+     * Saves the game panel has just set up and journals its moves from
+     * now on.
+     */
+    public void start(SudokuPanel panel, SudokuLevel level, int initialCount, boolean usedHint)
+            throws IOException
+    {
+        close();
+
+        _panel = panel;
+        _level = level;
+        _initialCount = initialCount;
+        _usedHint = usedHint;
+        setClock(0);
+
+        save();
+        panel.setGameSave(this);
+    }
+
+    /**
+     * Sets up panel with the saved game and its journal and journals its
+     * moves from now on. Returns false if there is no saved game; throws
+     * if it does not fit panel or fails its checksum.
+     */
+    public boolean resume(SudokuPanel panel)
+            throws IOException
+    {
+        close();
+
+        if (!exists())
+            return false;
+
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(_file.toPath()));
+        int width = panel.getBoardWidth();
+
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC)
+            throw new IOException("Invalid Sudoku Save - " + _file + " is not a saved game");
+
+        int version = buf.getShort(4) & 0xFFFF;
+        if (version != VERSION)
+            throw new IOException("Invalid Sudoku Save - " + _file + " has version " + version + ", not " + VERSION);
+        if ((buf.getShort(6) & 0xFFFF) != width)
+            throw new IOException("Invalid Sudoku Save - " + _file + " has width " + (buf.getShort(6) & 0xFFFF));
+
+        int bodySize = buf.getInt(48);
+        if (bodySize < 0 || HEADER_SIZE + bodySize != buf.capacity())
+            throw new IOException("Invalid Sudoku Save - " + _file + " does not match its header");
+
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), HEADER_SIZE, bodySize);
+        if ((int)crc.getValue() != buf.getInt(52))
+            throw new IOException("Invalid Sudoku Save - " + _file + " fails its checksum");
+
+        byte[] name = new byte[NAME_SIZE];
+        int length = 0;
+        buf.position(32);
+        buf.get(name);
+        while (length < NAME_SIZE && name[length] != 0)
+            length++;
+
+        String levelName = new String(name, 0, length, StandardCharsets.US_ASCII);
+        _level = SudokuLevel.getLevel(levelName);
+        if (_level == null)
+            throw new IOException("Invalid Sudoku Save - " + _file + " has level " + levelName);
+
+        _id = buf.getLong(8);
+        _initialCount = buf.getInt(24);
+        int flags = buf.getInt(28);
+        _usedHint = (flags & FLAG_HINT) != 0;
+
+        SudokuBoard problem = new SudokuBoard(width);
+        SudokuBoard answer = new SudokuBoard(width);
+        int cells = width * width;
+        int solvedSize = SudokuCodec.getSolvedSize(width);
+
+        SudokuCodec.decodeSolved(buf.array(), HEADER_SIZE, problem, answer);
+        buf.position(HEADER_SIZE + solvedSize);
+
+        panel.setGameSave(null);
+        panel.setAutoCandidates((flags & FLAG_AUTO_CANDIDATES) != 0);
+        panel.setProblem(problem.toArray(), answer.toArray(), problem.countGivens());
+
+        SudokuPos pos = new SudokuPos();
+        for (int cell = 0; cell < cells; cell++)
+        {
+            pos.setPos(cell / width, cell % width);
+            panel.setGuess(pos, buf.get(), false);
+        }
+        for (int cell = 0; cell < cells; cell++)
+        {
+            pos.setPos(cell / width, cell % width);
+            panel.setMarks(pos, buf.getInt());
+        }
+        for (int cell = 0; cell < cells; cell++)
+            panel.setStepEliminated(cell, buf.getInt());
+
+        try
+        {
+            panel.getUndoLog().read(buf);
+            panel.getRedoLog().read(buf);
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("Invalid Sudoku Save - " + _file + " has bad logs", e);
+        }
+
+        _panel = panel;
+        setClock(buf.getLong(16));
+        int replayed = replay(panel);
+
+        // a snapshot of what was replayed makes the journal empty again
+        if (replayed > 0 || !isJournalOf(_id))
+            save();
+        else
+            openJournal(false);
+
+        panel.setGameSave(this);
+
+        return true;
+    }
+
+    /**
+     * Journals that a hint was used.
+     */
+    public void setUsedHint()
+    {
+        if (!_usedHint)
+        {
+            _usedHint = true;
+            append(MOVE_HINT, 0, 0);
+        }
+    }
+
+    /**
+     * Appends a move to the journal. A journal that cannot be written is
+     * closed rather than stopping the game, and the next save starts it
+     * again; a full one is compacted.
+     */
+    public void append(int move, int cell, int value)
+    {
+        if (_journal == null)
+            return;
+
+        _record.clear();
+        _record.putLong(0, packMove(move, cell, value));
+        _record.putLong(8, getElapsed());
+
+        try
+        {
+            while (_record.hasRemaining())
+                _journal.write(_record);
+
+            if (++_journalCount >= MAX_JOURNAL)
+                save();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            closeJournal();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the game and empties the journal.
+     */
+    public void save()
+            throws IOException
+    {
+        if (_panel == null)
+            throw new IOException("Invalid Sudoku Save - no game to save");
+
+        SudokuPanel panel = _panel;
+        int width = panel.getBoardWidth();
+        int cells = width * width;
+        int solvedSize = SudokuCodec.getSolvedSize(width);
+        int bodySize = solvedSize + 9 * cells + panel.getUndoLog().getByteSize() + panel.getRedoLog().getByteSize();
+        byte[] data = new byte[HEADER_SIZE + bodySize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+
+        SudokuBoard problem = new SudokuBoard(width);
+        SudokuBoard answer = new SudokuBoard(width);
+        panel.getProblem(problem, answer);
+        SudokuCodec.encodeSolved(problem, answer, data, HEADER_SIZE);
+
+        buf.position(HEADER_SIZE + solvedSize);
+        for (int cell = 0; cell < cells; cell++)
+            buf.put(panel.getCell(cell / width, cell % width).getGuess());
+        for (int cell = 0; cell < cells; cell++)
+            buf.putInt(panel.getCell(cell / width, cell % width).getMarks());
+        for (int cell = 0; cell < cells; cell++)
+            buf.putInt(panel.getStepEliminated(cell));
+        panel.getUndoLog().write(buf);
+        panel.getRedoLog().write(buf);
+
+        byte[] name = _level.getName().getBytes(StandardCharsets.US_ASCII);
+        if (name.length > NAME_SIZE)
+            throw new IOException("Invalid Sudoku Save - level name " + _level.getName() + " is too long");
+
+        CRC32 crc = new CRC32();
+        crc.update(data, HEADER_SIZE, bodySize);
+
+        _id++;
+        buf.putInt(0, MAGIC);
+        buf.putShort(4, (short)VERSION);
+        buf.putShort(6, (short)width);
+        buf.putLong(8, _id);
+        buf.putLong(16, getElapsed());
+        buf.putInt(24, _initialCount);
+        buf.putInt(28, (_usedHint ? FLAG_HINT : 0) | (panel.isAutoCandidates() ? FLAG_AUTO_CANDIDATES : 0));
+        buf.position(32);
+        buf.put(name);
+        buf.putInt(48, bodySize);
+        buf.putInt(52, (int)crc.getValue());
+
+        File temp = new File(_file.getPath() + ".tmp");
+        Files.write(temp.toPath(), data);
+        Files.move(temp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        openJournal(true);
+    }
+
+    /**
+     * Stops journaling, leaving the files as they are.
+     */
+    public void close()
+    {
+        if (_panel != null)
+            _panel.setGameSave(null);
+        _panel = null;
+
+        closeJournal();
+    }
+
+    /**
+     * Stops journaling and deletes the saved game, for a game that is over.
+     */
+    public void delete()
+    {
+        close();
+
+        _file.delete();
+        _journalFile.delete();
+    }
+
+    private void setClock(long elapsed)
+    {
+        _elapsedBase = elapsed;
+        _clockStart = System.nanoTime();
+    }
+
+    /**
+     * Plays the moves of the journal of the snapshot on panel and returns
+     * their count.
+     */
+    private int replay(SudokuPanel panel)
+            throws IOException
+    {
+        if (!isJournalOf(_id))
+            return 0;
+
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(_journalFile.toPath()));
+        int width = panel.getBoardWidth();
+        SudokuPos pos = new SudokuPos();
+        int count = 0;
+
+        buf.position(JOURNAL_HEADER_SIZE);
+        while (buf.remaining() >= RECORD_SIZE)
+        {
+            long move = buf.getLong();
+            long elapsed = buf.getLong();
+            int cell = getMoveCell(move);
+            byte value = (byte)getMoveValue(move);
+
+            if (cell >= width * width)
+                throw new IOException("Invalid Sudoku Save - " + _journalFile + " has cell " + cell);
+
+            pos.setPos(cell / width, cell % width);
+            switch (getMoveType(move))
+            {
+                case MOVE_GUESS:
+                    if (value > width)
+                        throw new IOException("Invalid Sudoku Save - " + _journalFile + " has value " + value);
+                    panel.setGuess(pos, value);
+                    break;
+
+                case MOVE_MARK:
+                    if (value < 1 || value > width)
+                        throw new IOException("Invalid Sudoku Save - " + _journalFile + " has mark " + value);
+                    panel.setMark(pos, value);
+                    break;
+
+                case MOVE_UNDO:
+                    panel.undo();
+                    break;
+
+                case MOVE_UNDO_TO_LAST_GOOD:
+                    panel.undoToLastGood();
+                    break;
+
+                case MOVE_REDO:
+                    panel.redo();
+                    break;
+
+                case MOVE_AUTO_CANDIDATES:
+                    panel.setAutoCandidates(value != 0);
+                    break;
+
+                case MOVE_HINT:
+                    _usedHint = true;
+                    break;
+
+                case MOVE_ELIMINATE:
+                    if (value < 1 || value > width)
+                        throw new IOException("Invalid Sudoku Save - " + _journalFile + " has elimination " + value);
+                    panel.setStepEliminated(cell, panel.getStepEliminated(cell) | 1 << (value - 1));
+                    break;
+
+                default:
+                    throw new IOException("Invalid Sudoku Save - " + _journalFile + " has move " + getMoveType(move));
+            }
+
+            setClock(elapsed);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns true if the journal file starts with the header of the
+     * snapshot id.
+     */
+    private boolean isJournalOf(long id)
+            throws IOException
+    {
+        if (_journalFile.length() < JOURNAL_HEADER_SIZE)
+            return false;
+
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        FileChannel channel = FileChannel.open(_journalFile.toPath(), StandardOpenOption.READ);
+
+        try
+        {
+            while (header.hasRemaining() && channel.read(header) >= 0)
+                ;
+        }
+        finally
+        {
+            channel.close();
+        }
+
+        return header.getInt(0) == JOURNAL_MAGIC && (header.getShort(4) & 0xFFFF) == VERSION
+            && header.getLong(8) == id;
+    }
+
+    /**
+     * Opens the journal for appending, first emptying it and writing the
+     * header of the current snapshot if empty is true.
+     */
+    private void openJournal(boolean empty)
+            throws IOException
+    {
+        closeJournal();
+
+        if (empty)
+        {
+            _journal = FileChannel.open(_journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+
+            ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+            header.putInt(JOURNAL_MAGIC);
+            header.putShort((short)VERSION);
+            header.putShort((short)0);
+            header.putLong(_id);
+            header.flip();
+            while (header.hasRemaining())
+                _journal.write(header);
+
+            _journalCount = 0;
+        }
+        else
+        {
+            _journal = FileChannel.open(_journalFile.toPath(), StandardOpenOption.WRITE);
+
+            // a record cut short is written over
+            _journalCount = (int)((_journal.size() - JOURNAL_HEADER_SIZE) / RECORD_SIZE);
+            _journal.position(JOURNAL_HEADER_SIZE + (long)_journalCount * RECORD_SIZE);
+        }
+    }
+
+    private void closeJournal()
+    {
+        if (_journal != null)
+        {
+            try
+            {
+                _journal.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+            _journal = null;
+        }
+    }
+
+    /**
+     * Packs a move into bits 0-3, its cell into bits 4-13 and its value
+     * into bits 14-18.
+     */
+    private static long packMove(int move, int cell, int value)
+    {
+        return move | (cell & 0x3FF) << 4 | (value & 0x1F) << 14;
+    }
+
+    private static int getMoveType(long move)
+    {
+        return (int)(move & 0xF);
+    }
+
+    private static int getMoveCell(long move)
+    {
+        return (int)(move >>> 4 & 0x3FF);
+    }
+
+    private static int getMoveValue(long move)
+    {
+        return (int)(move >>> 14 & 0x1F);
+    }
+}
@@ -2,22 +2,47 @@ package org.sm.game.sudoku;
 
 import java.util.ArrayList;
 
+/**
+ * A difficulty: the givens to dig down to and the band of SudokuRater
+ * ratings a generated puzzle must fall in. The bands are set for 9x9
+ * boards, RATED_WIDTH; at other widths any rating matches.
+ *
+ * The bands do not overlap. Hard ends at HARD_MAX_RATING, which nearly
+ * every puzzle dug to 21 givens stays within; Extreme takes the rest.
+ *
+ * A 9x9 Extreme puzzle is not dug but picked from the extreme bank of
+ * 17-given puzzles, and its band is best effort: the 17-given puzzles in
+ * SudokuBenchmark rate 2, below the band, and a game gets the last of
+ * Sudoku.maxRatingTries picks whatever it rates.
+ */
 public class SudokuLevel
 {
+    public static final int RATED_WIDTH = 9;
+    public static final int HARD_MAX_RATING = 5;
+
     private final static ArrayList<SudokuLevel> _levels = new ArrayList<SudokuLevel>();
 
-    public static final SudokuLevel EASY_LEVEL = new SudokuLevel("Easy", 38);
-    public static final SudokuLevel MEDIUM_LEVEL = new SudokuLevel("Medium", 32);
-    public static final SudokuLevel HARD_LEVEL = new SudokuLevel("Hard", 21);
-    public static final SudokuLevel EXTREME_LEVEL = new SudokuLevel("Extreme", 17);
+    public static final SudokuLevel EASY_LEVEL = new SudokuLevel("Easy", 38, SudokuRater.NAKED_SINGLES, SudokuRater.NAKED_SINGLES);
+    public static final SudokuLevel MEDIUM_LEVEL = new SudokuLevel("Medium", 32, SudokuRater.HIDDEN_SINGLES, SudokuRater.HIDDEN_SINGLES);
+    public static final SudokuLevel HARD_LEVEL = new SudokuLevel("Hard", 21, SudokuRater.HIDDEN_SINGLES + 1, HARD_MAX_RATING);
+    public static final SudokuLevel EXTREME_LEVEL = new SudokuLevel("Extreme", 17, HARD_MAX_RATING + 1, SudokuRater.MAX_RATING);
     
     private int initialGiven;
     private String name;
+    private int minRating;
+    private int maxRating;
 
     public SudokuLevel(String name, int initialGiven)
+    {
+        this(name, initialGiven, SudokuRater.UNRATED, SudokuRater.MAX_RATING);
+    }
+
+    public SudokuLevel(String name, int initialGiven, int minRating, int maxRating)
     {
         this.name = name;
         this.initialGiven = initialGiven;
+        this.minRating = minRating;
+        this.maxRating = maxRating;
 
         synchronized (_levels)
         {
@@ -38,6 +63,32 @@ public class SudokuLevel
         return initialGiven;
     }
 
+    /**
+     * Returns the given count scaled from 9x9 to the cell count of width.
+     */
+    public int getInitialGiven(int width)
+    {
+        return (int)Math.round(initialGiven * (width * width) / 81.0);
+    }
+
+    public int getMinRating()
+    {
+        return minRating;
+    }
+
+    public int getMaxRating()
+    {
+        return maxRating;
+    }
+
+    /**
+     * Returns true if a puzzle of width with rating belongs to this level.
+     */
+    public boolean matchesRating(int width, int rating)
+    {
+        return width != RATED_WIDTH || (minRating <= rating && rating <= maxRating);
+    }
+
     public boolean equals(Object obj)
     {
         boolean equal;
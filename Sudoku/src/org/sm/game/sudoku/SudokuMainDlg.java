@@ -16,17 +16,23 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
     private JButton startButton;
     private JComboBox levelCombo;
     private SudokuPanel sudokuPanel;
+    private SudokuPuzzlePool puzzlePool;
+    private SudokuGameSave gameSave;
     private JLabel timerLabel;
     private JLabel remainLabel;
+    private JLabel stepLabel;
     private Timer elapsedTimer;
     private boolean usedHint;
     private int initialCount;
 
     JMenuItem menuStart;
+    JCheckBoxMenuItem menuAutoCandidates;
 
     private static final String GAME_START = "Start Game";
     private static final String GAME_STOP = "Stop Game";
     private static final String GAME_HINT = "Enable Hint";
+    private static final String GAME_NEXT_STEP = "Next Step";
+    private static final String GAME_AUTO_CANDIDATES = "Auto Candidates";
     private static final String GAME_EXIT = "Exit Game";
 
     private static final String EDIT_UNDO = "Undo";
@@ -39,16 +45,15 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
         boolean stopIt;
         long startMSec;
 
-        private Timer(JLabel timerLabel)
+        private Timer(JLabel timerLabel, long elapsedMSec)
         {
             this.timerLabel = timerLabel;
             stopIt = false;
+            startMSec = System.currentTimeMillis() - elapsedMSec;     // a resumed game goes on from its time
         }
 
         public void run()
         {
-            startMSec = System.currentTimeMillis();
-
             while (!stopIt)
             {
                 try
@@ -77,6 +82,8 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
     {
         super((Frame)null, "HN Sudoku", true);
 
+        puzzlePool = new SudokuPuzzlePool(DEF_WIDTH);
+
         initContentPane();
 
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
@@ -86,6 +93,9 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
         initMenu();
 
         elapsedTimer = null;
+
+        gameSave = new SudokuGameSave(SudokuGameSave.getDefaultFile());
+        resumeGame();
     }
 
     private void onCancel()
@@ -93,6 +103,31 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
         dispose();
     }
 
+    /**
+     * Saves a game in progress, to resume it when the dialog is opened
+     * again.
+     */
+    public void dispose()
+    {
+        if (elapsedTimer != null)
+        {
+            elapsedTimer.stopIt();
+            elapsedTimer = null;
+
+            try
+            {
+                gameSave.save();
+            }
+            catch (Exception e)
+            {
+                e.printStackTrace();
+            }
+        }
+        gameSave.close();
+
+        super.dispose();
+    }
+
     private void initContentPane()
         throws Exception
     {
@@ -125,7 +160,15 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
 
         levelCombo = new JComboBox(SudokuLevel.getLevelStrings());
         levelCombo.setSelectedItem(SudokuConfig.getInstance().getLevel().getName());
+        levelCombo.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                prefetchLevel();
+            }
+        });
         header.add(levelCombo);
+        prefetchLevel();
         header.add(Box.createHorizontalGlue());
 
         header.add(new JLabel("Elapsed:"));
@@ -146,6 +189,12 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
         SudokuPanel sp = getSudokuPanel();
         contentPane.add(sp);
 
+        contentPane.add(Box.createVerticalStrut(5));
+        stepLabel = new JLabel(" ");
+        stepLabel.setFont(contentPane.getFont().deriveFont(11.0F));
+        stepLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+        contentPane.add(stepLabel);
+
         addWindowFocusListener(new WindowAdapter()
         {
             public void windowGainedFocus(WindowEvent e)
@@ -199,12 +248,38 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
             {
                 JCheckBoxMenuItem showHint = (JCheckBoxMenuItem)e.getSource();
                 setShowHint(showHint.getState());
-                usedHint = usedHint || SudokuCell.getShowHint();
+                if (SudokuCell.getShowHint())
+                    setUsedHint();
             }
         });
         menuGame.add(menuShowHint);
         setShowHint(menuShowHint.getState());
 
+        JMenuItem menuNextStep = new JMenuItem(GAME_NEXT_STEP);
+        menuNextStep.setMnemonic('N');
+        menuNextStep.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_N, InputEvent.CTRL_DOWN_MASK));
+        menuNextStep.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                onNextStep();
+            }
+        });
+        menuGame.add(menuNextStep);
+
+        menuAutoCandidates = new JCheckBoxMenuItem(GAME_AUTO_CANDIDATES);
+        menuAutoCandidates.setMnemonic('A');
+        menuAutoCandidates.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_M, InputEvent.CTRL_DOWN_MASK));
+        menuAutoCandidates.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                JCheckBoxMenuItem autoCandidates = (JCheckBoxMenuItem)e.getSource();
+                sudokuPanel.setAutoCandidates(autoCandidates.getState());
+            }
+        });
+        menuGame.add(menuAutoCandidates);
+
         menuGame.addSeparator();
 
         JMenuItem menuExit = new JMenuItem(GAME_EXIT);
@@ -243,7 +318,7 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
             public void actionPerformed(ActionEvent e)
             {
                 onUndoToLastGood();
-                usedHint = true;
+                setUsedHint();
             }
         });
         menuEdit.add(menuUndoToLastGood);
@@ -268,29 +343,47 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
         setFilledCount(filled);
     }
 
+    public void onSolved()
+    {
+        if (elapsedTimer != null)
+            stopGame();
+    }
+
+    /**
+     * Starts generating puzzles of the selected level in the background.
+     */
+    private void prefetchLevel()
+    {
+        SudokuLevel level = SudokuLevel.getLevel((String)levelCombo.getSelectedItem());
+
+        if (level != null)
+            puzzlePool.prefetch(level);
+    }
+
     private void startGame()
     {
         if (elapsedTimer == null)
         {
-            Sudoku sudoku;
+            SudokuPuzzle sudoku;
             try
             {
                 String strLevel = (String)levelCombo.getSelectedItem();
+                SudokuLevel level = SudokuLevel.getLevel(strLevel);
+                if (level == null)
+                    throw new Exception("Invalid Sudoku Level - " + strLevel);
                 
                 setCursor(new Cursor(Cursor.WAIT_CURSOR));
-                sudoku = new Sudoku(DEF_WIDTH, strLevel);
+                sudoku = puzzlePool.take(level);
                 sudokuPanel.setProblem(sudoku.getProblem(), sudoku.getAnswer(), sudoku.getActualInitial());
+                stepLabel.setText(" ");
 
-                elapsedTimer = new Timer(timerLabel);
-                elapsedTimer.start();
-                startButton.setText("Stop");
-                menuStart.setText(GAME_STOP);
-                levelCombo.setEnabled(false);
-                sudokuPanel.requestFocusInWindow();
+                startTimer(0);
                 
                 usedHint = SudokuCell.getShowHint();
                 SudokuConfig.getInstance().setLevel(strLevel);
                 initialCount = sudoku.getActualInitial();
+
+                gameSave.start(sudokuPanel, level, initialCount, usedHint);
             }
             catch (Exception e)
             {
@@ -302,11 +395,52 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
             stopGame();
     }
 
+    /**
+     * Resumes the game that was in progress when the dialog was last
+     * closed, if there is one. A save that cannot be read is deleted, and
+     * the game it had set up in part is cleared off the panel.
+     */
+    private void resumeGame()
+    {
+        try
+        {
+            if (gameSave.resume(sudokuPanel))
+            {
+                levelCombo.setSelectedItem(gameSave.getLevel().getName());
+                menuAutoCandidates.setState(sudokuPanel.isAutoCandidates());
+                usedHint = gameSave.isUsedHint();
+                initialCount = gameSave.getInitialCount();
+
+                startTimer(gameSave.getElapsed());
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+
+            sudokuPanel.reset();
+            sudokuPanel.setAutoCandidates(menuAutoCandidates.getState());
+            gameSave.delete();
+        }
+    }
+
+    private void startTimer(long elapsedMSec)
+    {
+        elapsedTimer = new Timer(timerLabel, elapsedMSec);
+        elapsedTimer.start();
+        startButton.setText("Stop");
+        menuStart.setText(GAME_STOP);
+        levelCombo.setEnabled(false);
+        sudokuPanel.requestFocusInWindow();
+    }
+
     private void stopGame()
     {
         long elapsedMSec = elapsedTimer.stopIt();
         elapsedTimer = null;
 
+        gameSave.delete();      // the game is over
+
         startButton.setText("Start");
         menuStart.setText(GAME_START);
         levelCombo.setEnabled(true);
@@ -337,9 +471,6 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
         int total = DEF_WIDTH * DEF_WIDTH;
 
         remainLabel.setText(String.format("%d/%d", filled, total));
-
-        if (total == filled && sudokuPanel.isSolved())
-            stopGame();
     }
 
     private void setShowHint(boolean showHint)
@@ -347,6 +478,23 @@ public class SudokuMainDlg extends JDialog implements ISudokuPanelEventListener
         sudokuPanel.setShowHint(showHint);
     }
 
+    private void onNextStep()
+    {
+        if (elapsedTimer != null)
+        {
+            SudokuStep step = sudokuPanel.findNextStep();
+
+            stepLabel.setText(step == null ? "No step found" : step.toString());
+            setUsedHint();
+        }
+    }
+
+    private void setUsedHint()
+    {
+        usedHint = true;
+        gameSave.setUsedHint();
+    }
+
     private void onUndo()
     {
         sudokuPanel.undo();
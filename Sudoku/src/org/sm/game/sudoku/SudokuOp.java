@@ -1,54 +1,88 @@
 package org.sm.game.sudoku;
 
-public class SudokuOp
+/**
+ * A move of the player packed into a long, so an undo log is an array of
+ * longs rather than an object per move:
+ *
+ *   bits  0-1   op
+ *   bits  2-11  cell, y * width + x
+ *   bits 12-16  old value
+ *   bits 17-21  new value
+ *   bits 22-46  old marks, bit (value - 1) per mark
+ *   bit  47     the board was good so far after the move
+ *   bit  48     a long of peer eliminations comes with the op
+ *
+ * A SET that removed its value from the marks of peers is logged with a
+ * second long, bit i for peer i of the cell in the peer table of the panel.
+ */
+public final class SudokuOp
 {
     public static enum OP { SET, DEL, MARK }
 
-    private OP op;
-    private SudokuPos pos;
-    private byte oldValue;
-    private Byte[] oldMarks;
-    private byte newValue;
-    private boolean goodSoFar;
+    private static final OP[] OPS = OP.values();
 
-    public SudokuOp(OP op, SudokuPos pos, byte oldValue, Byte[] marks,
-                    byte newValue, boolean goodSoFar)
+    private static final int CELL_SHIFT = 2;
+    private static final int OLD_VALUE_SHIFT = 12;
+    private static final int NEW_VALUE_SHIFT = 17;
+    private static final int OLD_MARKS_SHIFT = 22;
+    private static final int GOOD_SHIFT = 47;
+    private static final int ELIMINATED_SHIFT = 48;
+
+    private static final long CELL_MASK = 0x3FF;
+    private static final long VALUE_MASK = 0x1F;
+    private static final long MARKS_MASK = 0x1FFFFFF;
+
+    private SudokuOp()
+    {
+    }
+
+    public static long pack(OP op, int cell, int oldValue, int oldMarks,
+                            int newValue, boolean goodSoFar, boolean eliminated)
     {
-        this.op = op;
-        this.pos = new SudokuPos(pos.getY(), pos.getX());
-        this.oldValue = oldValue;
-        this.oldMarks = marks;
-        this.newValue = newValue;
-        this.goodSoFar = goodSoFar;
+        return op.ordinal()
+            | (cell & CELL_MASK) << CELL_SHIFT
+            | (oldValue & VALUE_MASK) << OLD_VALUE_SHIFT
+            | (newValue & VALUE_MASK) << NEW_VALUE_SHIFT
+            | (oldMarks & MARKS_MASK) << OLD_MARKS_SHIFT
+            | (goodSoFar ? 1L : 0L) << GOOD_SHIFT
+            | (eliminated ? 1L : 0L) << ELIMINATED_SHIFT;
     }
 
-    public OP getOp()
+    public static OP getOp(long op)
     {
-        return op;
+        return OPS[(int)(op & 3)];
     }
 
-    public SudokuPos getPos()
+    public static int getCell(long op)
     {
-        return pos;
+        return (int)(op >>> CELL_SHIFT & CELL_MASK);
     }
 
-    public byte getOldValue()
+    public static byte getOldValue(long op)
     {
-        return oldValue;
+        return (byte)(op >>> OLD_VALUE_SHIFT & VALUE_MASK);
     }
 
-    public Byte[] getOldMarks()
+    public static byte getNewValue(long op)
     {
-        return oldMarks;
+        return (byte)(op >>> NEW_VALUE_SHIFT & VALUE_MASK);
     }
-    
-    public byte getNewValue()
+
+    public static int getOldMarks(long op)
+    {
+        return (int)(op >>> OLD_MARKS_SHIFT & MARKS_MASK);
+    }
+
+    public static boolean getGoodSoFar(long op)
     {
-        return newValue;
+        return (op >>> GOOD_SHIFT & 1) != 0;
     }
 
-    public boolean getGoodSoFar()
+    /**
+     * Returns true if a long of peer eliminations is logged with op.
+     */
+    public static boolean hasEliminated(long op)
     {
-        return goodSoFar;
+        return (op >>> ELIMINATED_SHIFT & 1) != 0;
     }
 }
@@ -0,0 +1,161 @@
+package org.sm.game.sudoku;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A stack of SudokuOp longs that grows as needed, with checkpoints: sizes
+ * of the log to return to in one jump. A checkpoint above the size is
+ * dropped as the log is popped below it.
+ */
+public class SudokuOpLog
+{
+    private static final int INITIAL_CAPACITY = 256;
+
+    private long[] _entries;
+    private int _size;
+    private int[] _checkpoints;
+    private int _checkpointCount;
+
+    public SudokuOpLog()
+    {
+        _entries = new long[INITIAL_CAPACITY];
+        _checkpoints = new int[INITIAL_CAPACITY];
+    }
+
+    public int size()
+    {
+        return _size;
+    }
+
+    public boolean isEmpty()
+    {
+        return _size == 0;
+    }
+
+    public void clear()
+    {
+        _size = 0;
+        _checkpointCount = 0;
+    }
+
+    public void push(long entry)
+    {
+        if (_size == _entries.length)
+        {
+            long[] entries = new long[_entries.length * 2];
+            System.arraycopy(_entries, 0, entries, 0, _size);
+            _entries = entries;
+        }
+
+        _entries[_size++] = entry;
+    }
+
+    public long pop()
+    {
+        if (_size == 0)
+            throw new RuntimeException("Invalid Sudoku Op Log - empty");
+
+        long entry = _entries[--_size];
+
+        while (_checkpointCount > 0 && _checkpoints[_checkpointCount - 1] > _size)
+            _checkpointCount--;
+
+        return entry;
+    }
+
+    public long get(int index)
+    {
+        if (index < 0 || index >= _size)
+            throw new RuntimeException("Invalid Sudoku Op Log Entry - " + index + " of " + _size);
+
+        return _entries[index];
+    }
+
+    /**
+     * Records the current size as a checkpoint.
+     */
+    public void checkpoint()
+    {
+        if (_checkpointCount == _checkpoints.length)
+        {
+            int[] checkpoints = new int[_checkpoints.length * 2];
+            System.arraycopy(_checkpoints, 0, checkpoints, 0, _checkpointCount);
+            _checkpoints = checkpoints;
+        }
+
+        _checkpoints[_checkpointCount++] = _size;
+    }
+
+    /**
+     * Returns the last checkpoint at or below the size, 0 if there is none.
+     */
+    public int getLastCheckpoint()
+    {
+        return _checkpointCount > 0 ? _checkpoints[_checkpointCount - 1] : 0;
+    }
+
+    public int getCheckpointCount()
+    {
+        return _checkpointCount;
+    }
+
+    public int getCheckpoint(int i)
+    {
+        return _checkpoints[i];
+    }
+
+    /**
+     * Returns the bytes write puts in a buffer.
+     */
+    public int getByteSize()
+    {
+        return 8 + 8 * _size + 4 * _checkpointCount;
+    }
+
+    /**
+     * Puts the size, the checkpoint count, the entries and the checkpoints
+     * into buf.
+     */
+    public void write(ByteBuffer buf)
+    {
+        buf.putInt(_size);
+        buf.putInt(_checkpointCount);
+        for (int i = 0; i < _size; i++)
+            buf.putLong(_entries[i]);
+        for (int i = 0; i < _checkpointCount; i++)
+            buf.putInt(_checkpoints[i]);
+    }
+
+    /**
+     * Replaces the log with one put into buf by write.
+     */
+    public void read(ByteBuffer buf)
+    {
+        int size = buf.getInt();
+        int checkpointCount = buf.getInt();
+
+        if (size < 0 || checkpointCount < 0 || checkpointCount > size
+            || 8L * size + 4L * checkpointCount > buf.remaining())
+            throw new RuntimeException("Invalid Sudoku Op Log - " + size + " entries, " + checkpointCount + " checkpoints");
+
+        clear();
+        for (int i = 0; i < size; i++)
+            push(buf.getLong());
+        for (int i = 0; i < checkpointCount; i++)
+        {
+            int checkpoint = buf.getInt();
+            if (checkpoint > _size || checkpoint < getLastCheckpoint())
+                throw new RuntimeException("Invalid Sudoku Op Log - checkpoint " + checkpoint + " of " + _size);
+            checkpoint();
+            _checkpoints[_checkpointCount - 1] = checkpoint;
+        }
+    }
+
+    /**
+     * Returns the bytes the log holds in its arrays.
+     */
+    public long getMemory()
+    {
+        return 8L * _entries.length + 4L * _checkpoints.length;
+    }
+}
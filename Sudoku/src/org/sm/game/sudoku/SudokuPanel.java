@@ -18,11 +18,29 @@ public class SudokuPanel extends JPanel
 
     private SudokuCell[][] cells;
     private int filled;
+    private int emptyCount;     // cells that are neither given nor guessed
+    private int wrongCount;     // guesses that differ from the answer
+
+    private int[] peers;        // peerCount peers for each cell y * width + x
+    private int peerCount;
+    private int[] unitCounts;   // per row, column and group, how often each value is in it
+    private int[] unitMasks;    // per row, column and group, bit (value - 1) for each value in it
+    private boolean autoCandidates;
+    private int conflictCount;
     private ArrayList<ISudokuPanelEventListener> eventListener;
 
     private boolean started;
-    private ArrayList<SudokuOp> UndoOps;
-    private ArrayList<SudokuOp> RedoOps;
+    private SudokuOpLog undoLog;
+    private SudokuOpLog redoLog;
+    private SudokuPos opPos;
+    private boolean batching;   // cells are repainted all at once when done
+    private SudokuGameSave gameSave;    // journals every move of the player when set
+
+    private SudokuStepSolver stepSolver;
+    private SudokuStep step;
+    private SudokuBoard stepBoard;
+    private int[] stepEliminated;       // per cell, the candidates earlier hints took away
+    private boolean hasStepEliminated;
 
     public SudokuPanel(int width)
     {
@@ -83,6 +101,7 @@ public class SudokuPanel extends JPanel
             }
         }
 
+        SudokuCell.setMaxMenu(width);
         SudokuCell.setProblemColor(new Color(0, 0, 128));
         SudokuCell.setGuessColor(new Color(0, 128, 0));
 
@@ -90,13 +109,43 @@ public class SudokuPanel extends JPanel
         setFilled(0);
 
         started = false;
-        UndoOps = new ArrayList<SudokuOp>();
-        RedoOps = new ArrayList<SudokuOp>();
+        undoLog = new SudokuOpLog();
+        redoLog = new SudokuOpLog();
+        opPos = new SudokuPos();
+
+        stepSolver = new SudokuStepSolver(width);
+        step = new SudokuStep(width);
+        stepBoard = new SudokuBoard(width);
+        stepEliminated = new int[width * width];
+
+        peerCount = 3 * (width - 1) - 2 * (groupWidth - 1);
+        peers = new int[width * width * peerCount];
+        for (int i = 0; i < width * width; i++)
+        {
+            int y = i / width;
+            int x = i % width;
+            int n = i * peerCount;
+
+            for (int peer = 0; peer < width * width; peer++)
+            {
+                int py = peer / width;
+                int px = peer % width;
+
+                if (peer != i && (py == y || px == x || getGroupIndex(py, px) == getGroupIndex(y, x)))
+                    peers[n++] = peer;
+            }
+        }
+        unitCounts = new int[3 * width * width];
+        unitMasks = new int[3 * width];
     }
 
     public void setProblem(byte[][] problem, byte[][] answer, int initial)
     {
         setFilled(initial);
+        emptyCount = width * width - initial;
+        wrongCount = 0;
+        clearStep();
+        clearStepEliminated();
 
         for (int y = 0; y < width; y++)
         {
@@ -104,13 +153,76 @@ public class SudokuPanel extends JPanel
                 getCell(y, x).initValue(problem[y][x] > 0 ? -problem[y][x] : answer[y][x]);
         }
 
+        for (int i = 0; i < unitCounts.length; i++)
+            unitCounts[i] = 0;
+        for (int i = 0; i < unitMasks.length; i++)
+            unitMasks[i] = 0;
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+                countValue(y, x, getCell(y, x).getNumber(), 1);
+        }
+        conflictCount = 0;
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+                updateConflict(y * width + x);
+        }
+
         SudokuCell.setShowAnswer(false);
+
+        if (autoCandidates)
+            fillCandidates();
         
         repaint();
 
         started = true;
     }
 
+    /**
+     * In auto-candidates mode every empty cell is marked with its
+     * candidates when a game starts or the mode is turned on.
+     */
+    public void setAutoCandidates(boolean autoCandidates)
+    {
+        this.autoCandidates = autoCandidates;
+
+        if (autoCandidates && started)
+            fillCandidates();
+
+        journal(SudokuGameSave.MOVE_AUTO_CANDIDATES, 0, autoCandidates ? 1 : 0);
+    }
+
+    public boolean isAutoCandidates()
+    {
+        return autoCandidates;
+    }
+
+    /**
+     * Marks every empty cell with the values its row, column and group do
+     * not hold yet, in one pass over the unit masks.
+     */
+    public void fillCandidates()
+    {
+        int allMask = (1 << width) - 1;
+
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                SudokuCell cell = getCell(y, x);
+
+                if (cell.getNumber() == 0)
+                {
+                    cell.setMarks(allMask & ~(unitMasks[y] | unitMasks[width + x]
+                                              | unitMasks[2 * width + getGroupIndex(y, x)]));
+                }
+            }
+        }
+
+        repaint();
+    }
+
     public void addEventListener(ISudokuPanelEventListener listener)
     {
         if (eventListener == null)
@@ -121,25 +233,58 @@ public class SudokuPanel extends JPanel
 
     public boolean isSolved()
     {
-        boolean solved = true;
+        return emptyCount == 0 && wrongCount == 0;
+    }
+
+    public boolean isStarted()
+    {
+        return started;
+    }
+
+    /**
+     * Empties the board and ends the game, leaving the panel as it was
+     * before the first setProblem, for a game that could not be set up.
+     */
+    public void reset()
+    {
+        clearStep();
+        clearStepEliminated();
 
-        for (int y = 0; y < width && solved; y++)
+        for (int y = 0; y < width; y++)
         {
-            for (int x = 0; x < width && solved; x++)
-                solved = getCell(y, x).isCorrect();
+            for (int x = 0; x < width; x++)
+            {
+                SudokuCell cell = getCell(y, x);
+
+                cell.initValue(0);
+                cell.setConflict(false);
+            }
         }
+        for (int i = 0; i < unitCounts.length; i++)
+            unitCounts[i] = 0;
+        for (int i = 0; i < unitMasks.length; i++)
+            unitMasks[i] = 0;
+        conflictCount = 0;
+        emptyCount = 0;
+        wrongCount = 0;
+        setFilled(0);
 
-        return solved;
+        started = false;
+        undoLog.clear();
+        redoLog.clear();
+
+        repaint();
     }
 
     public void showAnswer()
     {
+        clearStep();
         SudokuCell.setShowAnswer(true);
         repaint();
 
         started = false;
-        UndoOps.clear();
-        RedoOps.clear();
+        undoLog.clear();
+        redoLog.clear();
     }
 
     public void setFont(Font font)
@@ -182,65 +327,278 @@ public class SudokuPanel extends JPanel
         repaint();
     }
 
-    public void undo()
+    /**
+     * Finds the next logical step from the givens, the guesses and what
+     * earlier hints eliminated, highlights its cells and returns it. Returns
+     * null if no game is running or no technique applies. The eliminations
+     * of the step count as made for the next hint.
+     */
+    public SudokuStep findNextStep()
     {
-        if (UndoOps.size() > 0)
+        clearStep();
+
+        if (!started)
+            return null;
+
+        for (int y = 0; y < width; y++)
         {
-            SudokuOp op = UndoOps.remove(UndoOps.size()-1);
-            SudokuOp.OP opType = op.getOp();
+            for (int x = 0; x < width; x++)
+                stepBoard.set(y, x, getCell(y, x).getNumber());
+        }
+        stepSolver.load(stepBoard);
 
-            if (SudokuOp.OP.SET == opType)
+        for (int cell = 0; cell < stepEliminated.length; cell++)
+        {
+            for (int mask = stepEliminated[cell]; mask != 0; mask &= mask - 1)
+                stepSolver.eliminate(cell / width, cell % width, Integer.numberOfTrailingZeros(mask) + 1);
+        }
+
+        if (autoCandidates)
+        {
+            // the marks are the candidates the player kept
+            for (int cell = 0; cell < stepEliminated.length; cell++)
             {
-                setGuess(op.getPos(), op.getOldValue(), false);
-                Byte[] marks = op.getOldMarks();
-                if (marks != null)
+                SudokuCell c = getCell(cell / width, cell % width);
+
+                if (c.getNumber() == 0)
                 {
-                    for (Byte mark: marks)
-                        setMark(op.getPos(), mark, false);
+                    for (int mask = ~c.getMarks() & ((1 << width) - 1); mask != 0; mask &= mask - 1)
+                        stepSolver.eliminate(cell / width, cell % width, Integer.numberOfTrailingZeros(mask) + 1);
                 }
             }
-            else if (SudokuOp.OP.DEL == opType)
-                setGuess(op.getPos(), op.getOldValue(), false);
-            else if (SudokuOp.OP.MARK == opType)
-                setMark(op.getPos(), op.getNewValue(), false);
+        }
 
-            setCurCell(op.getPos().getY(), op.getPos().getX());
+        if (!stepSolver.findStep(step))
+        {
+            step.clear();
+            return null;
+        }
+
+        for (int i = 0; i < step.getEliminationCount(); i++)
+        {
+            int cell = step.getEliminationCell(i);
+            int value = step.getEliminationValue(i);
+
+            if ((stepEliminated[cell] & 1 << (value - 1)) == 0)
+            {
+                stepEliminated[cell] |= 1 << (value - 1);
+                journal(SudokuGameSave.MOVE_ELIMINATE, cell, value);
+            }
+            hasStepEliminated = true;
+        }
 
-            RedoOps.add(op);
+        for (int i = 0; i < step.getCellCount(); i++)
+        {
+            int cell = step.getCell(i);
+
+            getCell(cell / width, cell % width).setInStep(true);
+            invalidateCell(cell / width, cell % width);
         }
+
+        return step;
     }
 
+    /**
+     * Returns the candidates of cell that earlier hints eliminated, bit
+     * (value - 1) for each.
+     */
+    protected int getStepEliminated(int cell)
+    {
+        return stepEliminated[cell];
+    }
+
+    protected void setStepEliminated(int cell, int eliminated)
+    {
+        stepEliminated[cell] = eliminated;
+        if (eliminated != 0)
+            hasStepEliminated = true;
+    }
+
+    private void clearStepEliminated()
+    {
+        if (hasStepEliminated)
+        {
+            for (int i = 0; i < stepEliminated.length; i++)
+                stepEliminated[i] = 0;
+            hasStepEliminated = false;
+        }
+    }
+
+    /**
+     * Removes the highlight of the step last shown.
+     */
+    protected void clearStep()
+    {
+        for (int i = 0; i < step.getCellCount(); i++)
+        {
+            int cell = step.getCell(i);
+
+            getCell(cell / width, cell % width).setInStep(false);
+            invalidateCell(cell / width, cell % width);
+        }
+
+        step.clear();
+    }
+
+    public void undo()
+    {
+        if (!undoLog.isEmpty())
+        {
+            int cell = undoOne();
+            setCurCell(cell / width, cell % width);
+
+            journal(SudokuGameSave.MOVE_UNDO, cell, 0);
+        }
+    }
+
+    /**
+     * Undoes every move since the last guess after which the board was
+     * good so far, in one jump to the checkpoint of that guess, and
+     * repaints once.
+     */
     public void undoToLastGood()
     {
-        while (UndoOps.size() > 0)
+        int checkpoint = undoLog.getLastCheckpoint();
+
+        if (undoLog.size() > checkpoint)
         {
-            SudokuOp op = UndoOps.get(UndoOps.size()-1);
+            int cell = 0;
 
-            if (op.getOp() == SudokuOp.OP.SET && op.getGoodSoFar())
-                break;
+            batching = true;
+            while (undoLog.size() > checkpoint)
+                cell = undoOne();
+            batching = false;
 
-            undo();
+            repaint();
+            setCurCell(cell / width, cell % width);
+
+            journal(SudokuGameSave.MOVE_UNDO_TO_LAST_GOOD, cell, 0);
         }
     }
 
     public void redo()
     {
-        if (RedoOps.size() > 0)
+        if (!redoLog.isEmpty())
         {
-            SudokuOp op = RedoOps.remove(RedoOps.size()-1);
-            SudokuOp.OP opType = op.getOp();
+            long op = redoLog.pop();
+            long eliminated = SudokuOp.hasEliminated(op) ? redoLog.pop() : 0;
+            int cell = SudokuOp.getCell(op);
+            SudokuOp.OP opType = SudokuOp.getOp(op);
 
-            if (SudokuOp.OP.SET == opType || SudokuOp.OP.DEL == opType)
-                setGuess(op.getPos(), op.getNewValue(), false);
+            opPos.setPos(cell / width, cell % width);
+            if (SudokuOp.OP.SET == opType)
+            {
+                setGuess(opPos, SudokuOp.getNewValue(op), false);
+                removePeerMarks(opPos, SudokuOp.getNewValue(op), eliminated);
+            }
+            else if (SudokuOp.OP.DEL == opType)
+                setGuess(opPos, SudokuOp.getNewValue(op), false);
             else if (SudokuOp.OP.MARK == opType)
-                setMark(op.getPos(), op.getNewValue(), false);
+                setMark(opPos, SudokuOp.getNewValue(op), false);
 
-            setCurCell(op.getPos().getY(), op.getPos().getX());
-            
-            UndoOps.add(op);
+            setCurCell(cell / width, cell % width);
+
+            logOp(undoLog, op, eliminated);
+
+            journal(SudokuGameSave.MOVE_REDO, cell, 0);
         }
     }
 
+    /**
+     * Returns the log of the moves that can be undone, newest last.
+     */
+    SudokuOpLog getUndoLog()
+    {
+        return undoLog;
+    }
+
+    SudokuOpLog getRedoLog()
+    {
+        return redoLog;
+    }
+
+    /**
+     * Sets the save that every move of the player is appended to, or null
+     * to stop journaling.
+     */
+    void setGameSave(SudokuGameSave gameSave)
+    {
+        this.gameSave = gameSave;
+    }
+
+    int getBoardWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Copies the givens of the game into problem and its answer into
+     * answer.
+     */
+    void getProblem(SudokuBoard problem, SudokuBoard answer)
+    {
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                SudokuCell cell = getCell(y, x);
+
+                problem.set(y, x, cell.isPreset() ? cell.getAnswer() : 0);
+                answer.set(y, x, cell.getAnswer());
+            }
+        }
+    }
+
+    private void journal(int move, int cell, int value)
+    {
+        if (gameSave != null && started)
+            gameSave.append(move, cell, value);
+    }
+
+    /**
+     * Undoes the last move, moves it to the redo log and returns its cell.
+     */
+    private int undoOne()
+    {
+        long op = undoLog.pop();
+        long eliminated = SudokuOp.hasEliminated(op) ? undoLog.pop() : 0;
+        int cell = SudokuOp.getCell(op);
+        SudokuOp.OP opType = SudokuOp.getOp(op);
+
+        opPos.setPos(cell / width, cell % width);
+        if (SudokuOp.OP.SET == opType)
+        {
+            setGuess(opPos, SudokuOp.getOldValue(op), false);
+            setMarks(opPos, SudokuOp.getOldMarks(op));
+            restorePeerMarks(opPos, SudokuOp.getNewValue(op), eliminated);
+        }
+        else if (SudokuOp.OP.DEL == opType)
+        {
+            setGuess(opPos, SudokuOp.getOldValue(op), false);
+            setMarks(opPos, SudokuOp.getOldMarks(op));
+        }
+        else if (SudokuOp.OP.MARK == opType)
+            setMark(opPos, SudokuOp.getNewValue(op), false);
+
+        logOp(redoLog, op, eliminated);
+
+        return cell;
+    }
+
+    /**
+     * Pushes op, after its peer eliminations if it has them, and makes a
+     * guess that leaves the board good so far a checkpoint of log.
+     */
+    private static void logOp(SudokuOpLog log, long op, long eliminated)
+    {
+        if (SudokuOp.hasEliminated(op))
+            log.push(eliminated);
+        log.push(op);
+
+        if (SudokuOp.getOp(op) == SudokuOp.OP.SET && SudokuOp.getGoodSoFar(op))
+            log.checkpoint();
+    }
+
     protected void paintComponent(Graphics g)
     {
         super.paintComponent(g);
@@ -290,10 +648,16 @@ public class SudokuPanel extends JPanel
         }
 
         int kc = e.getKeyCode();
-        if (started && (KeyEvent.VK_1 <= kc && kc <= KeyEvent.VK_9
-                        || KeyEvent.VK_NUMPAD1 <= kc && kc <= KeyEvent.VK_NUMPAD9))
+        byte key = 0;
+        if (KeyEvent.VK_1 <= kc && kc <= KeyEvent.VK_9)
+            key = (byte)(kc - KeyEvent.VK_0);
+        else if (KeyEvent.VK_NUMPAD1 <= kc && kc <= KeyEvent.VK_NUMPAD9)
+            key = (byte)(kc - KeyEvent.VK_NUMPAD0);
+        else if (KeyEvent.VK_A <= kc && kc <= KeyEvent.VK_Z && !e.isControlDown())
+            key = (byte)(kc - KeyEvent.VK_A + 10);       // values above 9 on large boards
+
+        if (started && key > 0 && key <= width)
         {
-            byte key = (byte)(kc > KeyEvent.VK_9 ? kc - KeyEvent.VK_NUMPAD0 : kc - KeyEvent.VK_0);
             if (e.getModifiers() == 0)
                 setGuess(curPos, key);
             else
@@ -372,7 +736,8 @@ public class SudokuPanel extends JPanel
 
     protected void invalidateCell(int y, int x)
     {
-        repaint(getCell(y, x).getCellRect());
+        if (!batching)
+            repaint(getCell(y, x).getCellRect());
     }
 
     protected void setFilled(int filled)
@@ -403,40 +768,83 @@ public class SudokuPanel extends JPanel
 
     public boolean isGoodSoFar()
     {
-        boolean good = true;
+        return wrongCount == 0;
+    }
+
+    /**
+     * Returns the cells that are neither given nor guessed.
+     */
+    public int getEmptyCount()
+    {
+        return emptyCount;
+    }
 
-        for (int y = 0; y < width && good; y++)
-        {
-            for (int x = 0; x < width && good; x++)
-                good = getCell(y, x).isGood();
-        }
+    /**
+     * Returns the cells whose value is also in their row, column or group.
+     */
+    public int getConflictCount()
+    {
+        return conflictCount;
+    }
 
-        return good;
+    public boolean isConflict(int y, int x)
+    {
+        return getCell(y, x).isConflict();
+    }
+
+    /**
+     * Returns the guesses that differ from the answer.
+     */
+    public int getWrongCount()
+    {
+        return wrongCount;
     }
 
     protected void setGuess(SudokuPos pos, byte guess)
     {
         setGuess(pos, guess, true);
+
+        journal(SudokuGameSave.MOVE_GUESS, pos.getY() * width + pos.getX(), guess);
     }
 
     protected void setGuess(SudokuPos pos, byte guess, boolean undoable)
     {
         SudokuCell cell = getCell(pos);
+        int oldNumber = cell.getNumber();
         byte oldValue = cell.getGuess();
-        Byte[] oldMarks = cell.getMarks();
+        int oldMarks = cell.getMarks();
+        boolean wasSolved = isSolved();
+        boolean wasWrong = !cell.isGood();
         boolean firstGuess = cell.setGuess(guess);
-        SudokuOp op = null;
 
-        if (oldValue != guess)
+        if (oldValue != guess && !cell.isPreset())
+        {
+            if (oldValue == 0)
+                emptyCount--;
+            else if (guess == 0)
+                emptyCount++;
+            if (wasWrong)
+                wrongCount--;
+            if (!cell.isGood())
+                wrongCount++;
+
+            updateConflicts(pos.getY(), pos.getX(), oldNumber, cell.getNumber());
+        }
+
+        if (oldValue != guess || oldMarks != cell.getMarks())     // deleting an empty cell clears its marks
         {
+            clearStep();
+            if (oldValue != 0)
+                clearStepEliminated();      // hint eliminations may have followed from the old guess
+
             if (guess == 0)
             {
                 if (!firstGuess)
                     setFilled(filled - 1);
                 if (undoable)
                 {
-                    op = new SudokuOp(SudokuOp.OP.DEL, pos, oldValue, null,
-                                      guess, isGoodSoFar());
+                    logMove(SudokuOp.pack(SudokuOp.OP.DEL, pos.getY() * width + pos.getX(), oldValue, oldMarks,
+                                          guess, isGoodSoFar(), false), 0);
                 }
             }
             else
@@ -446,46 +854,164 @@ public class SudokuPanel extends JPanel
     
                 if (undoable)
                 {
-                    op = new SudokuOp(SudokuOp.OP.SET, pos, oldValue, oldMarks,
-                                      guess, isGoodSoFar());
+                    long eliminated = cell.isPreset() ? 0 : removePeerMarks(pos, guess, -1L);
+                    logMove(SudokuOp.pack(SudokuOp.OP.SET, pos.getY() * width + pos.getX(), oldValue, oldMarks,
+                                          guess, isGoodSoFar(), eliminated != 0), eliminated);
                 }
             }
     
-            if (op != null)
+            invalidateCell(pos);
+
+            if (!wasSolved && isSolved() && eventListener != null)
             {
-                UndoOps.add(op);
-                RedoOps.clear();
+                for (ISudokuPanelEventListener listener: eventListener)
+                    listener.onSolved();
             }
-    
-            invalidateCell(pos);
         }
     }
 
+    /**
+     * Moves a cell from oldNumber to newNumber in the unit counts and
+     * rechecks the cell and the peers holding either value; only cells
+     * whose conflict changes are repainted.
+     */
+    private void updateConflicts(int y, int x, int oldNumber, int newNumber)
+    {
+        int cell = y * width + x;
+
+        countValue(y, x, oldNumber, -1);
+        countValue(y, x, newNumber, 1);
+
+        updateConflict(cell);
+
+        int n = cell * peerCount;
+        for (int i = 0; i < peerCount; i++)
+        {
+            int peer = peers[n + i];
+            int number = getCell(peer / width, peer % width).getNumber();
+
+            if (number != 0 && (number == oldNumber || number == newNumber))
+                updateConflict(peer);
+        }
+    }
+
+    private void updateConflict(int cell)
+    {
+        int y = cell / width;
+        int x = cell % width;
+        SudokuCell c = getCell(y, x);
+        int number = c.getNumber();
+        boolean conflict = number != 0
+            && (unitCounts[y * width + number - 1] > 1
+                || unitCounts[(width + x) * width + number - 1] > 1
+                || unitCounts[(2 * width + getGroupIndex(y, x)) * width + number - 1] > 1);
+
+        if (conflict != c.isConflict())
+        {
+            c.setConflict(conflict);
+            conflictCount += conflict ? 1 : -1;
+            invalidateCell(y, x);
+        }
+    }
+
+    private void countValue(int y, int x, int number, int delta)
+    {
+        if (number != 0)
+        {
+            countValue(y, number, delta);
+            countValue(width + x, number, delta);
+            countValue(2 * width + getGroupIndex(y, x), number, delta);
+        }
+    }
+
+    private void countValue(int unit, int number, int delta)
+    {
+        int count = unitCounts[unit * width + number - 1] += delta;
+
+        if (count > 0)
+            unitMasks[unit] |= 1 << (number - 1);
+        else
+            unitMasks[unit] &= ~(1 << (number - 1));
+    }
+
+    /**
+     * Removes the mark of value from the peers of pos picked by bit i for
+     * peer i, and returns the bits of the peers that had it.
+     */
+    private long removePeerMarks(SudokuPos pos, int value, long peerBits)
+    {
+        int n = (pos.getY() * width + pos.getX()) * peerCount;
+        long removed = 0;
+
+        for (long bits = peerBits; bits != 0; bits &= bits - 1)
+        {
+            int i = Long.numberOfTrailingZeros(bits);
+            if (i >= peerCount)
+                break;
+
+            int peer = peers[n + i];
+            if (getCell(peer / width, peer % width).removeMark(value))
+            {
+                removed |= 1L << i;
+                invalidateCell(peer / width, peer % width);
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Marks value again in the peers of pos picked by bit i for peer i.
+     */
+    private void restorePeerMarks(SudokuPos pos, int value, long peerBits)
+    {
+        int n = (pos.getY() * width + pos.getX()) * peerCount;
+
+        for (long bits = peerBits; bits != 0; bits &= bits - 1)
+        {
+            int peer = peers[n + Long.numberOfTrailingZeros(bits)];
+            SudokuCell cell = getCell(peer / width, peer % width);
+
+            cell.setMarks(cell.getMarks() | 1 << (value - 1));
+            invalidateCell(peer / width, peer % width);
+        }
+    }
+
+    protected void setMarks(SudokuPos pos, int marks)
+    {
+        getCell(pos).setMarks(marks);
+        invalidateCell(pos);
+    }
+
     protected void setMark(SudokuPos pos, byte mark)
     {
         setMark(pos, mark, true);
+
+        journal(SudokuGameSave.MOVE_MARK, pos.getY() * width + pos.getX(), mark);
     }
 
     protected void setMark(SudokuPos pos, byte mark, boolean undoable)
     {
         SudokuCell cell = getCell(pos);
-        SudokuOp op = null;
         boolean invalid = false;
 
         if (cell.setMark(mark))
         {
             invalid = true;
             if (undoable)
-                op = new SudokuOp(SudokuOp.OP.MARK, pos, (byte)0, null, mark, true);
-        }
-
-        if (op != null)
-        {
-            UndoOps.add(op);
-            RedoOps.clear();
+                logMove(SudokuOp.pack(SudokuOp.OP.MARK, pos.getY() * width + pos.getX(), 0, 0, mark, true, false), 0);
         }
 
         if (invalid)
             invalidateCell(pos);
     }
+
+    /**
+     * Logs a new move of the player, which ends what can be redone.
+     */
+    private void logMove(long op, long eliminated)
+    {
+        logOp(undoLog, op, eliminated);
+        redoLog.clear();
+    }
 }
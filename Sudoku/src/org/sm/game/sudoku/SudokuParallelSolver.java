@@ -0,0 +1,348 @@
+package org.sm.game.sudoku;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits the search tree on a ForkJoinPool.
+ *
+ * A search first runs on the calling thread for up to sequential nodes,
+ * which is all a 9x9 puzzle needs, so small searches do not pay for the
+ * fork. A search that needs more starts over split: the first split depth
+ * levels branch on the empty cell with the fewest candidates and fork one
+ * task per candidate. Each leaf task searches its subtree with the
+ * SudokuPropagationSolver of its worker thread, and idle workers steal the
+ * remaining tasks. Once a solution (solve) or limit solutions
+ * (countSolutions) are found, the other tasks are cancelled.
+ *
+ * Each worker keeps its solver, candidates and grid between tasks; a task
+ * allocates a grid of its own only when it splits, since its children read
+ * it on other workers. The state of a call is kept out of the solver, so
+ * one instance can be used by several threads at once.
+ *
+ * The node limit is shared by all tasks, but how the nodes are spread over
+ * the tasks depends on scheduling, so a search close to the limit may give
+ * up on one run and finish on another.
+ */
+public class SudokuParallelSolver implements SudokuSolver
+{
+    private static final int DEFAULT_SPLIT_DEPTH = 4;
+    private static final long DEFAULT_SEQUENTIAL_NODES = 1 << 10;   // more than any 9x9 Hard puzzle needs
+
+    private int _width;
+    private ForkJoinPool _pool;
+    private int _splitDepth;
+    private long _sequentialNodes;
+    private long _nodeLimit;
+    private SudokuCancelToken _cancelToken;
+    private volatile long _nodes;       // of the last call to finish
+
+    private ThreadLocal<Scratch> _scratch;
+
+    public SudokuParallelSolver(int width)
+    {
+        this(width, ForkJoinPool.commonPool());
+    }
+
+    public SudokuParallelSolver(int width, ForkJoinPool pool)
+    {
+        _width = width;
+        _pool = pool;
+        _splitDepth = DEFAULT_SPLIT_DEPTH;
+        _sequentialNodes = DEFAULT_SEQUENTIAL_NODES;
+        _nodeLimit = Long.MAX_VALUE;
+
+        _scratch = new ThreadLocal<Scratch>()
+        {
+            protected Scratch initialValue()
+            {
+                return new Scratch();
+            }
+        };
+    }
+
+    /**
+     * Sets how many levels of the search tree are split into tasks.
+     */
+    public void setSplitDepth(int splitDepth)
+    {
+        _splitDepth = splitDepth;
+    }
+
+    /**
+     * Sets how many nodes a search runs on the calling thread before it is
+     * split. 0 splits every search.
+     */
+    public void setSequentialNodes(long sequentialNodes)
+    {
+        _sequentialNodes = sequentialNodes;
+    }
+
+    public void setNodeLimit(long nodeLimit)
+    {
+        _nodeLimit = nodeLimit;
+    }
+
+    public void setCancelToken(SudokuCancelToken cancelToken)
+    {
+        _cancelToken = cancelToken;
+    }
+
+    public long getNodeCount()
+    {
+        return _nodes;
+    }
+
+    public boolean solve(SudokuBoard problem, SudokuBoard answer)
+    {
+        return search(problem, 1, answer) > 0;
+    }
+
+    public int countSolutions(SudokuBoard problem, int limit)
+    {
+        return search(problem, limit, null);
+    }
+
+    public int countSolutions(SudokuBoard problem, int limit, SudokuBoard answer)
+    {
+        return search(problem, limit, answer);
+    }
+
+    private int search(SudokuBoard problem, int limit, SudokuBoard answer)
+    {
+        long nodes = 0;
+
+        if (_sequentialNodes > 0)
+        {
+            SudokuPropagationSolver solver = _scratch.get().solver;
+            long budget = Math.min(_sequentialNodes, _nodeLimit);
+
+            solver.setNodeLimit(budget);
+            solver.setCancelToken(_cancelToken);
+
+            int found = answer != null ? solver.countSolutions(problem, limit, answer)
+                                       : solver.countSolutions(problem, limit);
+            nodes = solver.getNodeCount();
+
+            // done, or given up for a reason splitting does not help with
+            if (found != UNKNOWN || budget == _nodeLimit || (_cancelToken != null && _cancelToken.isCancelled()))
+            {
+                _nodes = nodes;
+                return found;
+            }
+        }
+
+        Search search = new Search(limit, answer, _nodeLimit - nodes, _splitDepth, _cancelToken);
+
+        _pool.invoke(new SearchTask(search, problem, -1, 0, 0));
+
+        _nodes = nodes + search.nodes.get();
+
+        int found = search.found.get();
+        if (found >= limit)
+            return limit;
+
+        return search.aborted ? UNKNOWN : found;
+    }
+
+    /**
+     * The state of one call, shared by its tasks.
+     */
+    private static class Search
+    {
+        private int limit;
+        private SudokuBoard answer;     // null when the solutions are only counted
+        private boolean solved;         // answer holds the first solution found
+        private long nodeLimit;
+        private int splitDepth;
+        private SudokuCancelToken stop;
+        private AtomicInteger found;
+        private AtomicLong nodes;
+        private volatile boolean aborted;
+
+        private Search(int limit, SudokuBoard answer, long nodeLimit, int splitDepth, SudokuCancelToken cancelToken)
+        {
+            this.limit = limit;
+            this.answer = answer;
+            this.nodeLimit = nodeLimit;
+            this.splitDepth = splitDepth;
+            stop = new SudokuCancelToken(cancelToken);
+            found = new AtomicInteger();
+            nodes = new AtomicLong();
+        }
+
+        private void addSolutions(SudokuBoard grid, int count)
+        {
+            if (answer != null)
+            {
+                synchronized (this)
+                {
+                    if (!solved)
+                    {
+                        grid.copyInto(answer);
+                        solved = true;
+                    }
+                }
+            }
+
+            if (found.addAndGet(count) >= limit)
+                stop.cancel();
+        }
+    }
+
+    /**
+     * The solver and buffers of a worker thread. A task uses them only
+     * until it forks, so a task the worker runs while it waits for the
+     * children may take them over.
+     */
+    private class Scratch
+    {
+        private SudokuPropagationSolver solver;
+        private SudokuCandidates candidates;
+        private SudokuBoard grid;
+        private SudokuBoard answer;
+
+        private Scratch()
+        {
+            solver = new SudokuPropagationSolver(_width);
+            candidates = new SudokuCandidates(_width);
+            grid = new SudokuBoard(_width);
+            answer = new SudokuBoard(_width);
+        }
+    }
+
+    /**
+     * The subtree of parent with value placed in cell, or parent itself for
+     * cell -1. parent is not changed while the task runs.
+     */
+    private class SearchTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 4176432509711302946L;
+
+        private Search search;
+        private SudokuBoard parent;
+        private int cell;
+        private int value;
+        private int depth;
+
+        private SearchTask(Search search, SudokuBoard parent, int cell, int value, int depth)
+        {
+            this.search = search;
+            this.parent = parent;
+            this.cell = cell;
+            this.value = value;
+            this.depth = depth;
+        }
+
+        protected void compute()
+        {
+            if (search.stop.isCancelled())
+            {
+                if (search.found.get() < search.limit)
+                    search.aborted = true;
+                return;
+            }
+
+            Scratch scratch = _scratch.get();
+
+            parent.copyInto(scratch.grid);
+            if (cell >= 0)
+                scratch.grid.set(cell, value);
+
+            if (depth >= search.splitDepth)
+                searchLeaf(scratch);
+            else
+                split(scratch);
+        }
+
+        private void split(Scratch scratch)
+        {
+            SudokuBoard grid = scratch.grid;
+            SudokuCandidates candidates = scratch.candidates;
+            int bestY, bestX, bestCount;
+
+            candidates.load(grid);
+            do
+            {
+                bestY = -1;
+                bestX = -1;
+                bestCount = _width + 1;
+
+                for (int y = 0; y < _width && bestCount > 1; y++)
+                {
+                    for (int x = 0; x < _width && bestCount > 1; x++)
+                    {
+                        if (grid.get(y, x) == 0)
+                        {
+                            int count = Integer.bitCount(candidates.getCandidates(y, x));
+                            if (count < bestCount)
+                            {
+                                bestY = y;
+                                bestX = x;
+                                bestCount = count;
+                            }
+                        }
+                    }
+                }
+
+                if (bestCount == 1)
+                {
+                    // forced cell, keep it in this task without using up a split level
+                    int forced = candidates.nextCandidate(bestY, bestX, 0);
+                    grid.set(bestY, bestX, forced);
+                    candidates.place(bestY, bestX, forced);
+                }
+            } while (bestCount == 1);
+
+            if (bestY < 0)
+                search.addSolutions(grid, 1);
+            else if (bestCount > 1)
+            {
+                // the children read the grid on other workers, so it needs one of its own
+                SudokuBoard own = new SudokuBoard(_width);
+                ArrayList<SearchTask> tasks = new ArrayList<SearchTask>(bestCount);
+                int child = 0;
+
+                grid.copyInto(own);
+                search.nodes.addAndGet(bestCount);
+                while ((child = candidates.nextCandidate(bestY, bestX, child)) != 0)
+                    tasks.add(new SearchTask(search, own, bestY * _width + bestX, child, depth + 1));
+
+                invokeAll(tasks);
+            }
+        }
+
+        private void searchLeaf(Scratch scratch)
+        {
+            SudokuPropagationSolver solver = scratch.solver;
+            long budget = search.nodeLimit - search.nodes.get();
+            int remaining = search.limit - search.found.get();
+
+            if (budget <= 0)
+            {
+                search.aborted = true;
+                return;
+            }
+            else if (remaining <= 0)
+                return;
+
+            solver.setNodeLimit(budget);
+            solver.setCancelToken(search.stop);
+
+            int found = search.answer != null ? solver.countSolutions(scratch.grid, remaining, scratch.answer)
+                                              : solver.countSolutions(scratch.grid, remaining);
+            if (found == UNKNOWN)
+            {
+                if (search.found.get() < search.limit)
+                    search.aborted = true;
+            }
+            else if (found > 0)
+                search.addSolutions(scratch.answer, found);
+
+            search.nodes.addAndGet(solver.getNodeCount());
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package org.sm.game.sudoku;
+
+/**
+ * Propagates naked and hidden singles to a fixpoint, then branches on the
+ * empty cell with the fewest candidates (MRV).
+ *
+ * Every change of a cell is pushed to a trail, so backtracking pops the trail
+ * back to a mark instead of copying the board.
+ */
+public class SudokuPropagationSolver implements SudokuSolver
+{
+    private static final int CANCEL_POLL_NODES = 4096;
+
+    private int _width;
+    private int _cells;
+    private int _allMask;
+
+    private int[] _peers;       // _peerCount peers for each cell
+    private int _peerCount;
+    private int[] _units;       // rows, columns and groups, _width cells each
+
+    private int[] _candidates;
+    private byte[] _values;
+
+    private int[] _trailCell;
+    private int[] _trailCandidates;
+    private byte[] _trailValue;
+    private int _trailSize;
+
+    private byte[] _solution;
+    private int _limit;
+    private int _found;
+
+    private long _nodes;
+    private long _nodeLimit;
+    private SudokuCancelToken _cancelToken;
+    private boolean _aborted;
+    private long _propagations;
+
+    public SudokuPropagationSolver(int width)
+    {
+        int groupWidth = (int)Math.sqrt(width);
+
+        _width = width;
+        _cells = width * width;
+        _allMask = (1 << width) - 1;
+
+        _units = new int[3 * _cells];
+        for (int i = 0; i < width; i++)
+        {
+            for (int j = 0; j < width; j++)
+            {
+                int gy = (i / groupWidth) * groupWidth + j / groupWidth;
+                int gx = (i % groupWidth) * groupWidth + j % groupWidth;
+
+                _units[i * width + j] = i * width + j;
+                _units[_cells + i * width + j] = j * width + i;
+                _units[2 * _cells + i * width + j] = gy * width + gx;
+            }
+        }
+
+        _peerCount = 3 * (width - 1) - 2 * (groupWidth - 1);
+        _peers = new int[_cells * _peerCount];
+        for (int cell = 0; cell < _cells; cell++)
+        {
+            int y = cell / width;
+            int x = cell % width;
+            int n = cell * _peerCount;
+
+            for (int peer = 0; peer < _cells; peer++)
+            {
+                int py = peer / width;
+                int px = peer % width;
+
+                if (peer != cell
+                    && (py == y || px == x
+                        || (py / groupWidth == y / groupWidth && px / groupWidth == x / groupWidth)))
+                    _peers[n++] = peer;
+            }
+        }
+
+        _candidates = new int[_cells];
+        _values = new byte[_cells];
+
+        int trailSize = _cells * (width + 1);
+        _trailCell = new int[trailSize];
+        _trailCandidates = new int[trailSize];
+        _trailValue = new byte[trailSize];
+
+        _solution = new byte[_cells];
+        _nodeLimit = Long.MAX_VALUE;
+    }
+
+    public long getNodeCount()
+    {
+        return _nodes;
+    }
+
+    public long getPropagationCount()
+    {
+        return _propagations;
+    }
+
+    /**
+     * Returns true if the last call gave up on the node limit or the cancel token.
+     */
+    public boolean isAborted()
+    {
+        return _aborted;
+    }
+
+    public void setNodeLimit(long nodeLimit)
+    {
+        _nodeLimit = nodeLimit;
+    }
+
+    public void setCancelToken(SudokuCancelToken cancelToken)
+    {
+        _cancelToken = cancelToken;
+    }
+
+    public boolean solve(SudokuBoard problem, SudokuBoard answer)
+    {
+        boolean solved = search(problem, 1) > 0;
+
+        if (solved)
+            System.arraycopy(_solution, 0, answer.getCells(), 0, _cells);
+
+        return solved;
+    }
+
+    public int countSolutions(SudokuBoard problem, int limit)
+    {
+        return search(problem, limit);
+    }
+
+    public int countSolutions(SudokuBoard problem, int limit, SudokuBoard answer)
+    {
+        int count = search(problem, limit);
+
+        if (count > 0)
+            System.arraycopy(_solution, 0, answer.getCells(), 0, _cells);
+
+        return count;
+    }
+
+    private int search(SudokuBoard problem, int limit)
+    {
+        _limit = limit;
+        _found = 0;
+        _nodes = 0;
+        _aborted = false;
+        _propagations = 0;
+        _trailSize = 0;
+
+        for (int cell = 0; cell < _cells; cell++)
+        {
+            _candidates[cell] = _allMask;
+            _values[cell] = 0;
+        }
+
+        boolean consistent = true;
+        for (int cell = 0; cell < _cells && consistent; cell++)
+        {
+            int value = problem.get(cell);
+            if (value != 0)
+            {
+                if ((_candidates[cell] & (1 << (value - 1))) != 0)
+                    consistent = assign(cell, value);
+                else
+                    consistent = false;
+            }
+        }
+
+        if (consistent)
+            search();
+
+        return _aborted ? UNKNOWN : _found;
+    }
+
+    private void search()
+    {
+        if (!propagate())
+            return;
+
+        int best = -1;
+        int bestCount = _width + 1;
+        for (int cell = 0; cell < _cells && bestCount > 2; cell++)
+        {
+            if (_values[cell] == 0)
+            {
+                int count = Integer.bitCount(_candidates[cell]);
+                if (count < bestCount)
+                {
+                    best = cell;
+                    bestCount = count;
+                }
+            }
+        }
+
+        if (best < 0)
+        {
+            if (_found++ == 0)
+                System.arraycopy(_values, 0, _solution, 0, _cells);
+            return;
+        }
+
+        int mark = _trailSize;
+        int free = _candidates[best];
+        while (free != 0 && _found < _limit && spend())
+        {
+            int bit = free & -free;
+            free &= ~bit;
+
+            if (assign(best, Integer.numberOfTrailingZeros(bit) + 1))
+                search();
+
+            restore(mark);
+        }
+    }
+
+    /**
+     * Assigns naked and hidden singles until nothing changes.
+     * Returns false on a contradiction.
+     */
+    private boolean propagate()
+    {
+        boolean changed = true;
+
+        while (changed)
+        {
+            changed = false;
+
+            for (int cell = 0; cell < _cells; cell++)
+            {
+                if (_values[cell] == 0)
+                {
+                    int candidates = _candidates[cell];
+                    if (candidates == 0)
+                        return false;
+
+                    if ((candidates & (candidates - 1)) == 0)
+                    {
+                        _propagations++;
+                        if (!assign(cell, Integer.numberOfTrailingZeros(candidates) + 1))
+                            return false;
+                        changed = true;
+                    }
+                }
+            }
+
+            for (int u = 0; u < _units.length; u += _width)
+            {
+                int once = 0;
+                int twice = 0;
+                for (int i = u; i < u + _width; i++)
+                {
+                    int candidates = _candidates[_units[i]];
+                    twice |= once & candidates;
+                    once |= candidates;
+                }
+
+                if (once != _allMask)
+                    return false;
+
+                int singles = once & ~twice;
+                while (singles != 0)
+                {
+                    int bit = singles & -singles;
+                    singles &= ~bit;
+
+                    int cell = -1;
+                    for (int i = u; i < u + _width && cell < 0; i++)
+                    {
+                        if ((_candidates[_units[i]] & bit) != 0)
+                            cell = _units[i];
+                    }
+
+                    if (cell < 0)
+                        return false;
+
+                    if (_values[cell] == 0)
+                    {
+                        _propagations++;
+                        if (!assign(cell, Integer.numberOfTrailingZeros(bit) + 1))
+                            return false;
+                        changed = true;
+                    }
+                    else if (_candidates[cell] != bit)
+                        return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Counts a node and returns false once the node limit is exceeded or the
+     * cancel token is set. The token is polled every CANCEL_POLL_NODES nodes.
+     */
+    private boolean spend()
+    {
+        if (++_nodes > _nodeLimit
+            || ((_nodes & (CANCEL_POLL_NODES - 1)) == 0 && _cancelToken != null && _cancelToken.isCancelled()))
+            _aborted = true;
+
+        return !_aborted;
+    }
+
+    private boolean assign(int cell, int value)
+    {
+        int bit = 1 << (value - 1);
+
+        save(cell);
+        _values[cell] = (byte)value;
+        _candidates[cell] = bit;
+
+        for (int i = cell * _peerCount, end = i + _peerCount; i < end; i++)
+        {
+            int peer = _peers[i];
+            if ((_candidates[peer] & bit) != 0)
+            {
+                if (_values[peer] != 0)
+                    return false;
+
+                save(peer);
+                _candidates[peer] &= ~bit;
+                if (_candidates[peer] == 0)
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void save(int cell)
+    {
+        _trailCell[_trailSize] = cell;
+        _trailCandidates[_trailSize] = _candidates[cell];
+        _trailValue[_trailSize] = _values[cell];
+        _trailSize++;
+    }
+
+    private void restore(int mark)
+    {
+        while (_trailSize > mark)
+        {
+            _trailSize--;
+            int cell = _trailCell[_trailSize];
+            _candidates[cell] = _trailCandidates[_trailSize];
+            _values[cell] = _trailValue[_trailSize];
+        }
+    }
+}
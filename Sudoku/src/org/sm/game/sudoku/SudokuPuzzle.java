@@ -0,0 +1,85 @@
+package org.sm.game.sudoku;
+
+/**
+ * A generated puzzle with its answer, detached from the generator that
+ * made it.
+ */
+public class SudokuPuzzle
+{
+    private SudokuLevel level;
+    private SudokuBoard problem;
+    private SudokuBoard answer;
+    private int actualInitial;
+    private int rating;         // 0 when not rated
+
+    public SudokuPuzzle(SudokuLevel level, SudokuBoard problem, SudokuBoard answer, int actualInitial)
+    {
+        this(level, problem, answer, actualInitial, 0);
+    }
+
+    public SudokuPuzzle(SudokuLevel level, SudokuBoard problem, SudokuBoard answer, int actualInitial, int rating)
+    {
+        this.level = level;
+        this.problem = problem;
+        this.answer = answer;
+        this.actualInitial = actualInitial;
+        this.rating = rating;
+    }
+
+    /**
+     * Copies the current puzzle of sudoku.
+     */
+    public SudokuPuzzle(Sudoku sudoku)
+    {
+        this(sudoku.getLevel(), copy(sudoku.getProblemBoard()), copy(sudoku.getAnswerBoard()),
+             sudoku.getActualInitial(), sudoku.getRating());
+    }
+
+    private static SudokuBoard copy(SudokuBoard board)
+    {
+        SudokuBoard copy = new SudokuBoard(board.getWidth());
+        board.copyInto(copy);
+
+        return copy;
+    }
+
+    public SudokuLevel getLevel()
+    {
+        return level;
+    }
+
+    public int getWidth()
+    {
+        return problem.getWidth();
+    }
+
+    public int getActualInitial()
+    {
+        return actualInitial;
+    }
+
+    public int getRating()
+    {
+        return rating;
+    }
+
+    public SudokuBoard getProblemBoard()
+    {
+        return problem;
+    }
+
+    public SudokuBoard getAnswerBoard()
+    {
+        return answer;
+    }
+
+    public byte[][] getProblem()
+    {
+        return problem.toArray();
+    }
+
+    public byte[][] getAnswer()
+    {
+        return answer.toArray();
+    }
+}
@@ -0,0 +1,551 @@
+package org.sm.game.sudoku;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.zip.CRC32;
+
+/**
+ * A versioned bank of solved puzzles of any level and width, mapped into
+ * memory, so a puzzle of a level is picked at random and read without
+ * running a solver.
+ *
+ * Numbers are big-endian. The file starts with a header
+ *
+ *     0  4  magic "SDKB"
+ *     4  2  version
+ *     6  2  width
+ *     8  4  record size
+ *    12  4  record count
+ *    16  4  level count
+ *    20  4  CRC32 of the records and then the level entries
+ *
+ * followed by an entry per level, its name in 16 ASCII bytes padded with
+ * 0, the index of its first record and its record count, and then the
+ * records, grouped by level. A record is a 2-byte SudokuRater rating, 0
+ * when not rated, and SudokuCodec.encodeSolved of the puzzle and its
+ * answer. The checksum takes the records first so that a Writer can stream
+ * them.
+ */
+public class SudokuPuzzleBank
+{
+    public static final int MAGIC = 0x53444B42;     // "SDKB"
+    public static final int VERSION = 1;
+    public static final String DEFAULT_RESOURCE = "data/sudoku.bank";
+
+    private static final int HEADER_SIZE = 24;
+    private static final int NAME_SIZE = 16;
+    private static final int LEVEL_ENTRY_SIZE = NAME_SIZE + 8;
+    static final int RATING_SIZE = 2;
+
+    private static SudokuPuzzleBank defaultBank;
+    private static boolean defaultLoaded;
+
+    private MappedByteBuffer _buffer;
+    private int _width;
+    private int _recordSize;
+    private int _count;
+    private int _dataOffset;
+    private String[] _levelNames;
+    private int[] _levelFirst;
+    private int[] _levelCount;
+    private ThreadLocal<ByteBuffer> _reader = new ThreadLocal<ByteBuffer>()
+    {
+        protected ByteBuffer initialValue()
+        {
+            return _buffer.duplicate();
+        }
+    };
+    private ThreadLocal<byte[]> _record = new ThreadLocal<byte[]>()
+    {
+        protected byte[] initialValue()
+        {
+            return new byte[_recordSize - RATING_SIZE];
+        }
+    };
+
+    /**
+     * Maps a bank and checks its header and checksum.
+     */
+    public SudokuPuzzleBank(File file)
+            throws IOException
+    {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try
+        {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Invalid Sudoku Bank - " + file + " is too large to map");
+            if (size < HEADER_SIZE)
+                throw new IOException("Invalid Sudoku Bank - " + file + " is too short");
+
+            _buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        finally
+        {
+            channel.close();
+        }
+
+        if (_buffer.getInt(0) != MAGIC)
+            throw new IOException("Invalid Sudoku Bank - " + file + " is not a puzzle bank");
+
+        int version = _buffer.getShort(4) & 0xFFFF;
+        if (version != VERSION)
+            throw new IOException("Invalid Sudoku Bank - " + file + " has version " + version + ", not " + VERSION);
+
+        _width = _buffer.getShort(6) & 0xFFFF;
+        _recordSize = _buffer.getInt(8);
+        _count = _buffer.getInt(12);
+        int levels = _buffer.getInt(16);
+
+        int groupWidth = (int)Math.sqrt(_width);
+        if (groupWidth * groupWidth != _width || _width == 0 || _width > Sudoku.MAX_WIDTH)
+            throw new IOException("Invalid Sudoku Bank - " + file + " has width " + _width);
+        if (_recordSize != getRecordSize(_width))
+            throw new IOException("Invalid Sudoku Bank - " + file + " has records of " + _recordSize + " bytes");
+
+        _dataOffset = HEADER_SIZE + levels * LEVEL_ENTRY_SIZE;
+        if (levels < 0 || _count < 0 || (long)_dataOffset + (long)_count * _recordSize != _buffer.capacity())
+            throw new IOException("Invalid Sudoku Bank - " + file + " does not match its header");
+
+        ByteBuffer records = _buffer.duplicate();
+        ByteBuffer entries = _buffer.duplicate();
+        records.position(_dataOffset);
+        entries.position(HEADER_SIZE).limit(_dataOffset);
+        CRC32 crc = new CRC32();
+        crc.update(records);
+        crc.update(entries);
+        if ((int)crc.getValue() != _buffer.getInt(20))
+            throw new IOException("Invalid Sudoku Bank - " + file + " fails its checksum");
+
+        _levelNames = new String[levels];
+        _levelFirst = new int[levels];
+        _levelCount = new int[levels];
+        for (int i = 0; i < levels; i++)
+        {
+            int entry = HEADER_SIZE + i * LEVEL_ENTRY_SIZE;
+            byte[] name = new byte[NAME_SIZE];
+            int length = 0;
+
+            entries.position(entry);
+            entries.get(name);
+            while (length < NAME_SIZE && name[length] != 0)
+                length++;
+
+            _levelNames[i] = new String(name, 0, length, StandardCharsets.US_ASCII);
+            _levelFirst[i] = _buffer.getInt(entry + NAME_SIZE);
+            _levelCount[i] = _buffer.getInt(entry + NAME_SIZE + 4);
+
+            if (_levelFirst[i] < 0 || _levelCount[i] < 0 || (long)_levelFirst[i] + _levelCount[i] > _count)
+                throw new IOException("Invalid Sudoku Bank - " + file + " has a bad entry for " + _levelNames[i]);
+        }
+    }
+
+    public static int getRecordSize(int width)
+    {
+        return RATING_SIZE + SudokuCodec.getSolvedSize(width);
+    }
+
+    public int getWidth()
+    {
+        return _width;
+    }
+
+    public int getCount()
+    {
+        return _count;
+    }
+
+    /**
+     * Returns the number of puzzles of level in the bank.
+     */
+    public int getCount(SudokuLevel level)
+    {
+        int i = findLevel(level.getName());
+
+        return i < 0 ? 0 : _levelCount[i];
+    }
+
+    public String[] getLevelNames()
+    {
+        return _levelNames.clone();
+    }
+
+    public int getRating(int index)
+    {
+        return _buffer.getShort(getRecordOffset(index)) & 0xFFFF;
+    }
+
+    /**
+     * Reads puzzle index into problem and answer. Returns the number of
+     * givens.
+     */
+    public int read(int index, SudokuBoard problem, SudokuBoard answer)
+    {
+        if (problem.getWidth() != _width || answer.getWidth() != _width)
+            throw new RuntimeException("Invalid Sudoku Width - " + problem.getWidth());
+
+        ByteBuffer reader = _reader.get();
+        byte[] record = _record.get();
+        reader.position(getRecordOffset(index) + RATING_SIZE);
+        reader.get(record);
+
+        return SudokuCodec.decodeSolved(record, 0, problem, answer);
+    }
+
+    /**
+     * Copies record index, as a Writer takes it, into buf at offset.
+     */
+    public void readRecord(int index, byte[] buf, int offset)
+    {
+        ByteBuffer reader = _reader.get();
+        reader.position(getRecordOffset(index));
+        reader.get(buf, offset, _recordSize);
+    }
+
+    /**
+     * Returns the index of the first puzzle of level. The puzzles of a
+     * level follow each other.
+     */
+    public int getFirst(SudokuLevel level)
+    {
+        int i = findLevel(level.getName());
+
+        return i < 0 ? 0 : _levelFirst[i];
+    }
+
+    /**
+     * Returns puzzle index as a new puzzle.
+     */
+    public SudokuPuzzle get(int index)
+    {
+        SudokuBoard problem = new SudokuBoard(_width);
+        SudokuBoard answer = new SudokuBoard(_width);
+        int givens = read(index, problem, answer);
+        SudokuLevel level = null;
+
+        for (int i = 0; i < _levelNames.length && level == null; i++)
+        {
+            if (_levelFirst[i] <= index && index < _levelFirst[i] + _levelCount[i])
+                level = SudokuLevel.getLevel(_levelNames[i]);
+        }
+
+        return new SudokuPuzzle(level, problem, answer, givens, getRating(index));
+    }
+
+    /**
+     * Returns the index of a random puzzle of level.
+     */
+    public int pick(SudokuLevel level, SplittableRandom random)
+    {
+        int i = findLevel(level.getName());
+        if (i < 0 || _levelCount[i] == 0)
+            throw new RuntimeException("Invalid Sudoku Level - no " + level.getName() + " puzzles in the bank");
+
+        return _levelFirst[i] + random.nextInt(_levelCount[i]);
+    }
+
+    private int getRecordOffset(int index)
+    {
+        if (index < 0 || index >= _count)
+            throw new RuntimeException("Invalid Sudoku Bank Record - " + index + " of " + _count);
+
+        return _dataOffset + index * _recordSize;
+    }
+
+    private int findLevel(String name)
+    {
+        for (int i = 0; i < _levelNames.length; i++)
+        {
+            if (_levelNames[i].equalsIgnoreCase(name))
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Writes puzzles of width as a bank, grouped by level in the order the
+     * levels are defined and sorted by rating inside a level.
+     * Writer keeps the records of a level in the order they are written.
+     */
+    public static void write(File file, int width, List<SudokuPuzzle> puzzles)
+            throws IOException
+    {
+        final List<String> levelNames = Arrays.asList(SudokuLevel.getLevelStrings());
+
+        List<SudokuPuzzle> sorted = new ArrayList<SudokuPuzzle>(puzzles);
+        Collections.sort(sorted, new Comparator<SudokuPuzzle>()
+        {
+            public int compare(SudokuPuzzle a, SudokuPuzzle b)
+            {
+                int order = Integer.compare(levelNames.indexOf(a.getLevel().getName()),
+                                            levelNames.indexOf(b.getLevel().getName()));
+
+                return order != 0 ? order : Integer.compare(a.getRating(), b.getRating());
+            }
+        });
+
+        Writer writer = new Writer(file, width);
+        try
+        {
+            for (SudokuPuzzle puzzle: sorted)
+            {
+                writer.setLevel(puzzle.getLevel());
+                writer.write(puzzle);
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Streams records into a new bank through a buffer, a level at a time
+     * in the order the levels are defined. close writes the header.
+     */
+    public static class Writer
+    {
+        private static final int BUFFER_SIZE = 1 << 20;
+
+        private FileChannel channel;
+        private ByteBuffer buffer;
+        private CRC32 crc;
+        private int width;
+        private int recordSize;
+        private byte[] record;
+        private String[] levelNames;
+        private int[] levelCounts;
+        private int level;          // the level being written, -1 before the first
+        private long count;
+
+        public Writer(File file, int width)
+                throws IOException
+        {
+            this.width = width;
+            recordSize = SudokuPuzzleBank.getRecordSize(width);
+            record = new byte[recordSize];
+            levelNames = SudokuLevel.getLevelStrings();
+            levelCounts = new int[levelNames.length];
+            level = -1;
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            crc = new CRC32();
+
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                       StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            channel.position(HEADER_SIZE + levelNames.length * LEVEL_ENTRY_SIZE);
+        }
+
+        public int getRecordSize()
+        {
+            return recordSize;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Makes the next records of level. A level that comes before the
+         * current one in the order of definition cannot be written again.
+         */
+        public void setLevel(SudokuLevel level)
+        {
+            int i = Arrays.asList(levelNames).indexOf(level.getName());
+
+            if (i < this.level)
+                throw new RuntimeException("Invalid Sudoku Level - " + level.getName() + " after " + levelNames[this.level]);
+            if (i < 0)
+                throw new RuntimeException("Invalid Sudoku Level - " + level.getName());
+
+            this.level = i;
+        }
+
+        public void write(SudokuPuzzle puzzle)
+                throws IOException
+        {
+            if (puzzle.getWidth() != width)
+                throw new RuntimeException("Invalid Sudoku Width - " + puzzle.getWidth());
+            if (puzzle.getRating() < 0 || puzzle.getRating() > 0xFFFF)
+                throw new RuntimeException("Invalid Sudoku Rating - " + puzzle.getRating());
+
+            record[0] = (byte)(puzzle.getRating() >> 8);
+            record[1] = (byte)puzzle.getRating();
+            SudokuCodec.encodeSolved(puzzle.getProblemBoard(), puzzle.getAnswerBoard(), record, RATING_SIZE);
+
+            write(record, 0, 1);
+        }
+
+        /**
+         * Writes count records already encoded as in a bank.
+         */
+        public void write(byte[] records, int offset, int count)
+                throws IOException
+        {
+            if (level < 0)
+                throw new RuntimeException("Invalid Sudoku Level - none set");
+            if (this.count + count > Integer.MAX_VALUE
+                || HEADER_SIZE + levelNames.length * LEVEL_ENTRY_SIZE + (this.count + count) * recordSize > Integer.MAX_VALUE)
+                throw new IOException("Invalid Sudoku Bank - too many puzzles for a bank");
+
+            for (int length = count * recordSize; length > 0; )
+            {
+                if (!buffer.hasRemaining())
+                    flush();
+
+                int n = Math.min(length, buffer.remaining());
+                buffer.put(records, offset, n);
+                offset += n;
+                length -= n;
+            }
+
+            levelCounts[level] += count;
+            this.count += count;
+        }
+
+        private void flush()
+                throws IOException
+        {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Writes the rest of the records, the level entries and the header.
+         */
+        public void close()
+                throws IOException
+        {
+            try
+            {
+                flush();
+
+                ByteBuffer entries = ByteBuffer.allocate(levelNames.length * LEVEL_ENTRY_SIZE);
+                for (int i = 0, first = 0; i < levelNames.length; first += levelCounts[i], i++)
+                {
+                    byte[] name = levelNames[i].getBytes(StandardCharsets.US_ASCII);
+                    if (name.length > NAME_SIZE)
+                        throw new RuntimeException("Invalid Sudoku Level - " + levelNames[i] + " is too long for a bank");
+
+                    entries.put(name);
+                    entries.put(new byte[NAME_SIZE - name.length]);
+                    entries.putInt(first);
+                    entries.putInt(levelCounts[i]);
+                }
+                entries.flip();
+                crc.update(entries.duplicate());
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.putShort((short)VERSION);
+                header.putShort((short)width);
+                header.putInt(recordSize);
+                header.putInt((int)count);
+                header.putInt(levelNames.length);
+                header.putInt((int)crc.getValue());
+                header.flip();
+
+                channel.position(0);
+                while (header.hasRemaining())
+                    channel.write(header);
+                while (entries.hasRemaining())
+                    channel.write(entries);
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Converts a bank of extreme givens records, as read by SudokuBank, to
+     * a puzzle bank. Every puzzle is solved once here instead of on every
+     * load.
+     */
+    public static void convert(File in, File out)
+            throws IOException
+    {
+        SudokuBank bank = new SudokuBank(in, Sudoku.extremeDataSize);
+        SudokuSolver solver = new SudokuDLXSolver(Sudoku.EXTREME_WIDTH);
+        List<SudokuPuzzle> puzzles = new ArrayList<SudokuPuzzle>(bank.getCount());
+        byte[] buf = new byte[Sudoku.extremeDataSize];
+
+        for (int i = 0; i < bank.getCount(); i++)
+        {
+            SudokuBoard problem = new SudokuBoard(Sudoku.EXTREME_WIDTH);
+            SudokuBoard answer = new SudokuBoard(Sudoku.EXTREME_WIDTH);
+
+            bank.read(i, buf, 0);
+            int givens = SudokuCodec.decodeGivens(buf, 0, buf.length, problem);
+            if (!solver.solve(problem, answer))
+                throw new RuntimeException("Invalid Sudoku - record " + i + " of " + in + " has no solution");
+
+            puzzles.add(new SudokuPuzzle(SudokuLevel.EXTREME_LEVEL, problem, answer, givens));
+        }
+
+        write(out, Sudoku.EXTREME_WIDTH, puzzles);
+    }
+
+    /**
+     * Returns the bank shipped with the game, mapped the first time it is
+     * asked for, or null if there is none or it cannot be read.
+     */
+    public static synchronized SudokuPuzzleBank getDefault()
+    {
+        if (!defaultLoaded)
+        {
+            defaultLoaded = true;
+
+            URL url = SudokuPuzzleBank.class.getResource(DEFAULT_RESOURCE);
+            if (url != null)
+            {
+                try
+                {
+                    defaultBank = new SudokuPuzzleBank(SudokuBank.locate(url));
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return defaultBank;
+    }
+
+    /**
+     * Converts an extreme bank: SudokuPuzzleBank in.dat out.bank
+     */
+    public static void main(String[] args)
+            throws Exception
+    {
+        if (args.length < 2)
+        {
+            System.out.println("Usage: SudokuPuzzleBank in.dat out.bank");
+            return;
+        }
+
+        convert(new File(args[0]), new File(args[1]));
+
+        SudokuPuzzleBank bank = new SudokuPuzzleBank(new File(args[1]));
+        System.out.println(bank.getCount() + " puzzles written to " + args[1]);
+    }
+}
@@ -0,0 +1,179 @@
+package org.sm.game.sudoku;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps a few generated puzzles ready for each level.
+ *
+ * A level gets a bounded queue and a daemon refill thread the first time it
+ * is prefetched or taken. The thread runs at minimum priority, generates
+ * with its own Sudoku instance and waits while the queue is full. take
+ * returns a queued puzzle at once, or generates one on the calling thread
+ * when the queue is empty.
+ */
+public class SudokuPuzzlePool
+{
+    public static final int DEFAULT_CAPACITY = 4;
+
+    private int _width;
+    private int _capacity;
+    private Map<SudokuLevel,LevelQueue> _queues;
+    private Sudoku _fallback;
+
+    public SudokuPuzzlePool(int width)
+    {
+        this(width, DEFAULT_CAPACITY);
+    }
+
+    public SudokuPuzzlePool(int width, int capacity)
+    {
+        _width = width;
+        _capacity = capacity;
+        _queues = new HashMap<SudokuLevel,LevelQueue>();
+    }
+
+    /**
+     * Starts filling the queue of level in the background.
+     */
+    public void prefetch(SudokuLevel level)
+    {
+        getQueue(level);
+    }
+
+    /**
+     * Returns the next puzzle of level. Only blocks, to generate the puzzle
+     * itself, when the queue of level is empty.
+     */
+    public SudokuPuzzle take(SudokuLevel level)
+    {
+        LevelQueue queue = getQueue(level);
+        SudokuPuzzle puzzle = queue.puzzles.poll();
+
+        if (puzzle == null)
+        {
+            synchronized (this)
+            {
+                queue.misses++;
+
+                if (_fallback == null)
+                    _fallback = new Sudoku(_width);
+
+                _fallback.generate(level);
+                puzzle = new SudokuPuzzle(_fallback);
+            }
+        }
+
+        return puzzle;
+    }
+
+    /**
+     * Returns the number of puzzles of level ready to be taken.
+     */
+    public int getQueueDepth(SudokuLevel level)
+    {
+        LevelQueue queue;
+
+        synchronized (_queues)
+        {
+            queue = _queues.get(level);
+        }
+
+        return queue == null ? 0 : queue.puzzles.size();
+    }
+
+    /**
+     * Returns how many takes of level found the queue empty.
+     */
+    public int getMissCount(SudokuLevel level)
+    {
+        LevelQueue queue;
+
+        synchronized (_queues)
+        {
+            queue = _queues.get(level);
+        }
+
+        return queue == null ? 0 : queue.misses;
+    }
+
+    /**
+     * Stops the refill threads. Queued puzzles can still be taken.
+     */
+    public void shutdown()
+    {
+        synchronized (_queues)
+        {
+            for (LevelQueue queue: _queues.values())
+                queue.refill.interrupt();
+        }
+    }
+
+    private LevelQueue getQueue(SudokuLevel level)
+    {
+        LevelQueue queue;
+
+        synchronized (_queues)
+        {
+            queue = _queues.get(level);
+            if (queue == null)
+            {
+                queue = new LevelQueue(level);
+                _queues.put(level, queue);
+                queue.refill.start();
+            }
+        }
+
+        return queue;
+    }
+
+    private class LevelQueue
+    {
+        private BlockingQueue<SudokuPuzzle> puzzles;
+        private Refill refill;
+        private volatile int misses;
+
+        private LevelQueue(SudokuLevel level)
+        {
+            puzzles = new ArrayBlockingQueue<SudokuPuzzle>(_capacity);
+            refill = new Refill(level, puzzles);
+        }
+    }
+
+    private class Refill extends Thread
+    {
+        private SudokuLevel level;
+        private BlockingQueue<SudokuPuzzle> puzzles;
+
+        private Refill(SudokuLevel level, BlockingQueue<SudokuPuzzle> puzzles)
+        {
+            super("SudokuPuzzlePool-" + level.getName());
+
+            this.level = level;
+            this.puzzles = puzzles;
+
+            setDaemon(true);
+            setPriority(Thread.MIN_PRIORITY);
+        }
+
+        public void run()
+        {
+            Sudoku sudoku = new Sudoku(_width);
+
+            try
+            {
+                while (!isInterrupted())
+                {
+                    sudoku.generate(level);
+                    puzzles.put(new SudokuPuzzle(sudoku));
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // shut down
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.sm.game.sudoku;
+
+/**
+ * Rates a puzzle by the effort it takes to solve, the same on every
+ * machine:
+ *
+ *   1   naked singles solve it
+ *   2   hidden singles are needed too
+ *   3+  guessing is needed, 2 + log2 of the search nodes, at least 2, a
+ *       propagation solver spends proving the solution unique
+ *
+ * MAX_RATING is for a puzzle whose search runs out of MAX_NODES. A rater
+ * allocates nothing once built, so every generated puzzle can be rated.
+ *
+ * The search nodes depend on the order of the cells, so the puzzle is
+ * rated in its SudokuCanonicalizer form: every transform of a puzzle gets
+ * the same rating.
+ */
+public class SudokuRater
+{
+    public static final int UNRATED = 0;
+    public static final int NAKED_SINGLES = 1;
+    public static final int HIDDEN_SINGLES = 2;
+    public static final int MAX_RATING = 20;
+
+    private static final long MAX_NODES = 1L << (MAX_RATING - 3);
+
+    private int _width;
+    private SudokuPropagationSolver _solver;
+    private SudokuCanonicalizer _canonicalizer;
+    private SudokuBoard _canonical;
+    private SudokuCandidates _candidates;
+    private SudokuBoard _grid;
+
+    public SudokuRater(int width)
+    {
+        _width = width;
+        _solver = new SudokuPropagationSolver(width);
+        _solver.setNodeLimit(MAX_NODES);
+        _canonicalizer = new SudokuCanonicalizer(width);
+        _canonical = new SudokuBoard(width);
+        _candidates = new SudokuCandidates(width);
+        _grid = new SudokuBoard(width);
+    }
+
+    /**
+     * Returns the rating of problem, which must have a unique solution.
+     */
+    public int rate(SudokuBoard problem)
+    {
+        if (problem.getWidth() != _width)
+            throw new RuntimeException("Invalid Sudoku Width - " + problem.getWidth());
+
+        if (solvesByNakedSingles(problem))
+            return NAKED_SINGLES;
+
+        _canonicalizer.canonicalize(problem, _canonical);
+
+        int count = _solver.countSolutions(_canonical, 2);
+        long nodes = _solver.getNodeCount();
+
+        if (count == SudokuSolver.UNKNOWN)
+            return MAX_RATING;
+        else if (nodes == 0)
+            return HIDDEN_SINGLES;
+        else
+            return Math.min(2 + 63 - Long.numberOfLeadingZeros(nodes), MAX_RATING);
+    }
+
+    private boolean solvesByNakedSingles(SudokuBoard problem)
+    {
+        problem.copyInto(_grid);
+        _candidates.load(_grid);
+
+        int empty = _grid.getCellCount() - _grid.countGivens();
+        boolean changed = true;
+
+        while (changed && empty > 0)
+        {
+            changed = false;
+
+            for (int y = 0; y < _width; y++)
+            {
+                for (int x = 0; x < _width; x++)
+                {
+                    if (_grid.get(y, x) == 0)
+                    {
+                        int candidates = _candidates.getCandidates(y, x);
+                        if (candidates == 0)
+                            return false;
+
+                        if ((candidates & (candidates - 1)) == 0)
+                        {
+                            int value = Integer.numberOfTrailingZeros(candidates) + 1;
+
+                            _grid.set(y, x, value);
+                            _candidates.place(y, x, value);
+                            empty--;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        return empty == 0;
+    }
+}
@@ -0,0 +1,359 @@
+package org.sm.game.sudoku;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates a bank in shards, on as many processes or hosts as there are
+ * seed ranges, and merges the shards.
+ *
+ * Puzzle i of a level comes from a seed made of i and the level, so a
+ * range of indexes always gives the same shard, whatever the thread count,
+ * and disjoint ranges give different puzzles. A shard is written to a
+ * temporary file and renamed to shard-<id>.bank when complete, so merge
+ * never sees half a shard. merge checks every shard and record, drops the
+ * puzzles that are transforms of one already merged, and writes one bank.
+ *
+ * To try it on one machine, run several JVMs on one directory:
+ *
+ *   java SudokuShardJob generate -i 0 -r 0:500 -l Easy,Hard dir &
+ *   java SudokuShardJob generate -i 1 -r 500:1000 -l Easy,Hard dir &
+ *   wait
+ *   java SudokuShardJob merge dir out.bank
+ */
+public class SudokuShardJob
+{
+    public static final String SHARD_PREFIX = "shard-";
+    public static final String SHARD_SUFFIX = ".bank";
+
+    private static final int BATCH = 16;                // puzzles per task
+    private static final int QUEUE_PER_THREAD = 4;      // tasks ahead of the writer per worker
+
+    private int _width;
+    private String _solverName;
+    private int _threads;
+
+    private long _written;
+    private long _duplicates;
+
+    public SudokuShardJob(int width, String solverName, int threads)
+    {
+        _width = width;
+        _solverName = solverName;
+        _threads = threads;
+    }
+
+    /**
+     * Returns the puzzles written by the last generate or merge.
+     */
+    public long getWritten()
+    {
+        return _written;
+    }
+
+    /**
+     * Returns the puzzles the last merge dropped as duplicates.
+     */
+    public long getDuplicates()
+    {
+        return _duplicates;
+    }
+
+    /**
+     * Returns the seed of puzzle index of level in any shard.
+     */
+    public static long getSeed(long index, SudokuLevel level)
+    {
+        return Sudoku.mix((index + 1) * 0xBF58476D1CE4E5B9L ^ level.getName().toLowerCase().hashCode());
+    }
+
+    public static File getShardFile(File dir, int shard)
+    {
+        return new File(dir, SHARD_PREFIX + shard + SHARD_SUFFIX);
+    }
+
+    /**
+     * Generates puzzles from index to before end of each level into shard
+     * of dir. Returns the shard file.
+     */
+    public File generate(File dir, int shard, final long from, long to, SudokuLevel[] levels)
+            throws Exception
+    {
+        File file = getShardFile(dir, shard);
+        File temp = new File(dir, file.getName() + ".tmp");
+
+        final ThreadLocal<Sudoku> generators = new ThreadLocal<Sudoku>()
+        {
+            protected Sudoku initialValue()
+            {
+                Sudoku sudoku = new Sudoku(_width, Sudoku.createSolver(_solverName, _width));
+                sudoku.setBank(null);       // shards are generated, never picked
+
+                return sudoku;
+            }
+        };
+        final int recordSize = SudokuPuzzleBank.getRecordSize(_width);
+
+        // the writer needs the levels in the order they are defined
+        final List<String> names = Arrays.asList(SudokuLevel.getLevelStrings());
+        SudokuLevel[] sorted = levels.clone();
+        Arrays.sort(sorted, new Comparator<SudokuLevel>()
+        {
+            public int compare(SudokuLevel a, SudokuLevel b)
+            {
+                return Integer.compare(names.indexOf(a.getName()), names.indexOf(b.getName()));
+            }
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        BlockingQueue<Future<byte[]>> pending = new ArrayBlockingQueue<Future<byte[]>>(_threads * QUEUE_PER_THREAD);
+        SudokuPuzzleBank.Writer writer = new SudokuPuzzleBank.Writer(temp, _width);
+
+        _written = 0;
+        try
+        {
+            for (final SudokuLevel level: sorted)
+            {
+                writer.setLevel(level);
+
+                for (long start = from; start < to || !pending.isEmpty(); )
+                {
+                    // keep the queue full, then write the oldest batch
+                    while (start < to && pending.remainingCapacity() > 0)
+                    {
+                        final long batchStart = start;
+                        final long batchEnd = Math.min(start + BATCH, to);
+
+                        pending.add(pool.submit(new Callable<byte[]>()
+                        {
+                            public byte[] call()
+                            {
+                                Sudoku sudoku = generators.get();
+                                byte[] records = new byte[(int)(batchEnd - batchStart) * recordSize];
+
+                                for (long i = batchStart; i < batchEnd; i++)
+                                {
+                                    int offset = (int)(i - batchStart) * recordSize;
+
+                                    sudoku.generate(level, getSeed(i, level));
+                                    records[offset] = (byte)(sudoku.getRating() >> 8);
+                                    records[offset + 1] = (byte)sudoku.getRating();
+                                    SudokuCodec.encodeSolved(sudoku.getProblemBoard(), sudoku.getAnswerBoard(), records,
+                                                             offset + SudokuPuzzleBank.RATING_SIZE);
+                                }
+
+                                return records;
+                            }
+                        }));
+                        start = batchEnd;
+                    }
+
+                    byte[] records = pending.take().get();
+                    writer.write(records, 0, records.length / recordSize);
+                    _written += records.length / recordSize;
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+            writer.close();
+        }
+
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return file;
+    }
+
+    /**
+     * Merges the shards of dir into out, level by level in shard order,
+     * keeping the first of each puzzle up to symmetry. Throws if a shard
+     * fails its checksum or holds a record that is not a solved puzzle.
+     */
+    public void merge(File dir, File out)
+            throws IOException
+    {
+        File[] files = dir.listFiles(new FileFilter()
+        {
+            public boolean accept(File file)
+            {
+                return getShardId(file) >= 0;
+            }
+        });
+        if (files == null || files.length == 0)
+            throw new IOException("Invalid Sudoku Shards - none in " + dir);
+
+        Arrays.sort(files, new Comparator<File>()
+        {
+            public int compare(File a, File b)
+            {
+                return Integer.compare(getShardId(a), getShardId(b));
+            }
+        });
+
+        List<SudokuPuzzleBank> shards = new ArrayList<SudokuPuzzleBank>();
+        for (File file: files)
+        {
+            SudokuPuzzleBank shard = new SudokuPuzzleBank(file);
+            if (shard.getWidth() != _width)
+                throw new IOException("Invalid Sudoku Shards - " + file + " has width " + shard.getWidth());
+
+            shards.add(shard);
+        }
+
+        SudokuDedupIndex index = new SudokuDedupIndex(_width);
+        SudokuCanonicalizer canonicalizer = new SudokuCanonicalizer(_width);
+        SudokuCandidates candidates = new SudokuCandidates(_width);
+        SudokuBoard problem = new SudokuBoard(_width);
+        SudokuBoard answer = new SudokuBoard(_width);
+        SudokuBoard canonical = new SudokuBoard(_width);
+        long[] fingerprint = new long[2];
+        byte[] record = new byte[SudokuPuzzleBank.getRecordSize(_width)];
+        SudokuPuzzleBank.Writer writer = new SudokuPuzzleBank.Writer(out, _width);
+
+        _written = 0;
+        _duplicates = 0;
+        try
+        {
+            for (String name: SudokuLevel.getLevelStrings())
+            {
+                SudokuLevel level = SudokuLevel.getLevel(name);
+                writer.setLevel(level);
+
+                for (int s = 0; s < shards.size(); s++)
+                {
+                    SudokuPuzzleBank shard = shards.get(s);
+                    int first = shard.getFirst(level);
+
+                    for (int i = first; i < first + shard.getCount(level); i++)
+                    {
+                        shard.read(i, problem, answer);
+                        if (!candidates.isAnswerOf(answer, problem))
+                            throw new IOException("Invalid Sudoku Shards - record " + i + " of " + files[s] + " is not solved");
+
+                        SudokuDedupIndex.fingerprint(canonicalizer, problem, canonical, fingerprint);
+                        if (index.add(fingerprint[0], fingerprint[1]))
+                        {
+                            shard.readRecord(i, record, 0);
+                            writer.write(record, 0, 1);
+                            _written++;
+                        }
+                        else
+                            _duplicates++;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the id of a shard file, or -1 if it is not one.
+     */
+    private static int getShardId(File file)
+    {
+        String name = file.getName();
+
+        if (!file.isFile() || !name.startsWith(SHARD_PREFIX) || !name.endsWith(SHARD_SUFFIX))
+            return -1;
+
+        try
+        {
+            return Integer.parseInt(name.substring(SHARD_PREFIX.length(), name.length() - SHARD_SUFFIX.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    private static void usage()
+    {
+        System.err.println("Usage: SudokuShardJob generate [-w width] [-s backtrack|dlx|propagation] [-t threads]"
+                           + " -i shard -r from:to -l level[,level...] dir");
+        System.err.println("       SudokuShardJob merge [-w width] dir output.bank");
+        System.exit(2);
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        int width = 9;
+        String solverName = "dlx";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int shard = -1;
+        long from = 0;
+        long to = -1;
+        List<SudokuLevel> levels = new ArrayList<SudokuLevel>();
+        int i = 1;
+
+        if (args.length == 0)
+            usage();
+
+        for (; i + 1 < args.length && args[i].startsWith("-"); i += 2)
+        {
+            if ("-w".equals(args[i]))
+                width = Integer.parseInt(args[i + 1]);
+            else if ("-s".equals(args[i]))
+                solverName = args[i + 1];
+            else if ("-t".equals(args[i]))
+                threads = Integer.parseInt(args[i + 1]);
+            else if ("-i".equals(args[i]))
+                shard = Integer.parseInt(args[i + 1]);
+            else if ("-r".equals(args[i]))
+            {
+                String[] range = args[i + 1].split(":");
+                from = Long.parseLong(range[0]);
+                to = Long.parseLong(range[1]);
+            }
+            else if ("-l".equals(args[i]))
+            {
+                for (String name: args[i + 1].split(","))
+                {
+                    SudokuLevel level = SudokuLevel.getLevel(name);
+                    if (level == null)
+                        usage();
+                    levels.add(level);
+                }
+            }
+            else
+                usage();
+        }
+
+        SudokuShardJob job = new SudokuShardJob(width, solverName, threads);
+        long start = System.nanoTime();
+
+        if ("generate".equals(args[0]) && args.length - i == 1 && shard >= 0 && from <= to && !levels.isEmpty())
+        {
+            File file = job.generate(new File(args[i]), shard, from, to, levels.toArray(new SudokuLevel[levels.size()]));
+
+            System.err.println(String.format("%s: %d puzzles in %.2f s", file, job.getWritten(),
+                                             (System.nanoTime() - start) / 1e9));
+        }
+        else if ("merge".equals(args[0]) && args.length - i == 2)
+        {
+            job.merge(new File(args[i]), new File(args[i + 1]));
+
+            System.err.println(String.format("%s: %d puzzles, %d duplicates dropped, in %.2f s", args[i + 1],
+                                             job.getWritten(), job.getDuplicates(), (System.nanoTime() - start) / 1e9));
+        }
+        else
+            usage();
+    }
+}
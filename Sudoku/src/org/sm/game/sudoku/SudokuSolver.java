@@ -0,0 +1,50 @@
+package org.sm.game.sudoku;
+
+/**
+ * Solving backend used by Sudoku to create the answer of a problem and to
+ * check that a problem has a single solution.
+ */
+public interface SudokuSolver
+{
+    /**
+     * Returned by countSolutions when the search gave up before the count
+     * could be proven.
+     */
+    int UNKNOWN = -1;
+
+    /**
+     * Solves the problem (0 for an empty cell) into answer.
+     * Returns false if no solution was found.
+     */
+    boolean solve(SudokuBoard problem, SudokuBoard answer);
+
+    /**
+     * Counts the solutions of the problem, stopping as soon as limit
+     * solutions are found. Returns UNKNOWN if the search gave up.
+     */
+    int countSolutions(SudokuBoard problem, int limit);
+
+    /**
+     * Counts the solutions like countSolutions(problem, limit) and copies
+     * the first one found into answer, so a problem can be checked and
+     * solved with a single search. answer only holds a solution if the
+     * count is 1 or more.
+     */
+    int countSolutions(SudokuBoard problem, int limit, SudokuBoard answer);
+
+    /**
+     * Limits the search nodes of each call. A call that needs more gives up,
+     * so the result does not depend on the speed or load of the machine.
+     */
+    void setNodeLimit(long nodeLimit);
+
+    /**
+     * A call gives up once the token is cancelled. null to run without one.
+     */
+    void setCancelToken(SudokuCancelToken cancelToken);
+
+    /**
+     * Returns the search nodes (values tried) of the last call.
+     */
+    long getNodeCount();
+}
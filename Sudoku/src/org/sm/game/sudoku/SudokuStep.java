@@ -0,0 +1,213 @@
+package org.sm.game.sudoku;
+
+/**
+ * One deduction found by SudokuStepSolver: the technique, the cells that
+ * prove it, and either a value to place or candidates to eliminate. Cells
+ * are indexes y * width + x. A step is filled in place, so one instance
+ * serves every hint.
+ */
+public class SudokuStep
+{
+    public static enum TECHNIQUE
+    {
+        NAKED_SINGLE("Naked Single"),
+        HIDDEN_SINGLE("Hidden Single"),
+        LOCKED_CANDIDATES("Locked Candidates"),
+        NAKED_PAIR("Naked Pair"),
+        HIDDEN_PAIR("Hidden Pair"),
+        NAKED_TRIPLE("Naked Triple"),
+        HIDDEN_TRIPLE("Hidden Triple"),
+        X_WING("X-Wing"),
+        SWORDFISH("Swordfish"),
+        CONTRADICTION("Contradiction");
+
+        private String name;
+
+        private TECHNIQUE(String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    private int width;
+    private TECHNIQUE technique;
+    private int values;             // bits (value - 1) of the values the step is about
+    private int placeCell;
+    private int placeValue;
+    private int[] cells;
+    private int cellCount;
+    private int[] eliminationCells;
+    private int[] eliminationValues;
+    private int eliminationCount;
+
+    public SudokuStep(int width)
+    {
+        this.width = width;
+        cells = new int[width * width];
+        eliminationCells = new int[width * width * width];
+        eliminationValues = new int[width * width * width];
+        clear();
+    }
+
+    public void clear()
+    {
+        technique = null;
+        values = 0;
+        placeCell = -1;
+        placeValue = 0;
+        cellCount = 0;
+        eliminationCount = 0;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public TECHNIQUE getTechnique()
+    {
+        return technique;
+    }
+
+    public void setTechnique(TECHNIQUE technique, int values)
+    {
+        this.technique = technique;
+        this.values = values;
+    }
+
+    /**
+     * Returns the bits (value - 1) of the values the step is about.
+     */
+    public int getValues()
+    {
+        return values;
+    }
+
+    public boolean isPlacement()
+    {
+        return placeCell >= 0;
+    }
+
+    /**
+     * Returns the cell to place getPlaceValue in, or -1 for a step that
+     * only eliminates.
+     */
+    public int getPlaceCell()
+    {
+        return placeCell;
+    }
+
+    public int getPlaceValue()
+    {
+        return placeValue;
+    }
+
+    public void setPlacement(int cell, int value)
+    {
+        placeCell = cell;
+        placeValue = value;
+    }
+
+    public int getCellCount()
+    {
+        return cellCount;
+    }
+
+    public int getCell(int i)
+    {
+        return cells[i];
+    }
+
+    public void addCell(int cell)
+    {
+        cells[cellCount++] = cell;
+    }
+
+    public int getEliminationCount()
+    {
+        return eliminationCount;
+    }
+
+    public int getEliminationCell(int i)
+    {
+        return eliminationCells[i];
+    }
+
+    public int getEliminationValue(int i)
+    {
+        return eliminationValues[i];
+    }
+
+    public void addElimination(int cell, int value)
+    {
+        eliminationCells[eliminationCount] = cell;
+        eliminationValues[eliminationCount] = value;
+        eliminationCount++;
+    }
+
+    /**
+     * Describes the step for the player, such as
+     * "Naked Pair 2,7: r1c4 r1c8, removes 2 from r1c1, 7 from r1c1".
+     */
+    public String toString()
+    {
+        if (technique == null)
+            return "No step";
+
+        StringBuilder sb = new StringBuilder(technique.getName());
+
+        if (values != 0 && placeCell < 0)
+        {
+            sb.append(' ');
+            appendValues(sb, values);
+        }
+        sb.append(':');
+        for (int i = 0; i < cellCount; i++)
+        {
+            sb.append(' ');
+            appendCell(sb, cells[i]);
+        }
+
+        if (placeCell >= 0)
+        {
+            sb.append(", ").append(SudokuCodec.toChar(placeValue)).append(" goes in ");
+            appendCell(sb, placeCell);
+        }
+        else if (eliminationCount > 0)
+        {
+            sb.append(", removes ");
+            for (int i = 0; i < eliminationCount; i++)
+            {
+                if (i > 0)
+                    sb.append(", ");
+                sb.append(SudokuCodec.toChar(eliminationValues[i])).append(" from ");
+                appendCell(sb, eliminationCells[i]);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private void appendCell(StringBuilder sb, int cell)
+    {
+        sb.append('r').append(cell / width + 1).append('c').append(cell % width + 1);
+    }
+
+    private static void appendValues(StringBuilder sb, int mask)
+    {
+        for (int value = 1; mask != 0; value++, mask >>>= 1)
+        {
+            if ((mask & 1) != 0)
+            {
+                sb.append(SudokuCodec.toChar(value));
+                if ((mask >>> 1) != 0)
+                    sb.append(',');
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.sm.game.sudoku;
+
+import java.util.SplittableRandom;
+
+/**
+ * A symmetry of the Sudoku grid: a relabeling of the values, a permutation
+ * of the bands and of the rows inside each band, the same for the stacks
+ * and columns, and an optional transposition. A transformed puzzle has as
+ * many solutions as the original, the transformed ones, so a verified
+ * puzzle gives new verified puzzles without a solver.
+ *
+ * For 9x9 there are 9! * 6^8 * 2, about 1.2 * 10^12, transforms, of which
+ * 6^8 * 2, about 3.4 million, leave the values alone.
+ */
+public class SudokuTransform
+{
+    private int width;
+    private int groupWidth;
+    private int[] values;       // values[v] is the new value of v
+    private int[] rows;         // rows[y] is the source row of row y
+    private int[] columns;      // columns[x] is the source column of column x
+    private boolean transpose;
+
+    public SudokuTransform(int width)
+    {
+        this.width = width;
+        groupWidth = (int)Math.sqrt(width);
+        values = new int[width + 1];
+        rows = new int[width];
+        columns = new int[width];
+
+        reset();
+    }
+
+    /**
+     * Makes this the identity.
+     */
+    public void reset()
+    {
+        for (int v = 0; v <= width; v++)
+            values[v] = v;
+        for (int i = 0; i < width; i++)
+        {
+            rows[i] = i;
+            columns[i] = i;
+        }
+        transpose = false;
+    }
+
+    /**
+     * Picks a transform uniformly at random.
+     */
+    public void randomize(SplittableRandom random)
+    {
+        reset();
+
+        shuffle(values, 1, width, random);
+        shuffleLines(rows, random);
+        shuffleLines(columns, random);
+        transpose = random.nextBoolean();
+    }
+
+    /**
+     * Writes the transform of src into dst, which must be another board.
+     */
+    public void apply(SudokuBoard src, SudokuBoard dst)
+    {
+        for (int y = 0; y < width; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int value = transpose ? src.get(columns[x], rows[y]) : src.get(rows[y], columns[x]);
+                dst.set(y, x, values[value]);
+            }
+        }
+    }
+
+    /**
+     * Permutes the bands, then the lines inside each band.
+     */
+    private void shuffleLines(int[] lines, SplittableRandom random)
+    {
+        for (int i = groupWidth - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1);
+            for (int k = 0; k < groupWidth; k++)
+            {
+                int line = lines[i * groupWidth + k];
+                lines[i * groupWidth + k] = lines[j * groupWidth + k];
+                lines[j * groupWidth + k] = line;
+            }
+        }
+
+        for (int band = 0; band < width; band += groupWidth)
+            shuffle(lines, band, band + groupWidth - 1, random);
+    }
+
+    /**
+     * Fisher-Yates shuffle of a[from..to].
+     */
+    private static void shuffle(int[] a, int from, int to, SplittableRandom random)
+    {
+        for (int i = to; i > from; i--)
+        {
+            int j = from + random.nextInt(i - from + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+}